@@ -0,0 +1,84 @@
+package learn.benchmark;
+
+import learn.utils.BitwiseMerge;
+import learn.utils.BloomFilter;
+import learn.utils.BuildInfo;
+import org.openjdk.jmh.annotations.*;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Whole-array passes over an off-heap bit array: counting its bits, and merging another into it.
+ * The kernels are chosen once per JVM, so each pass runs twice: in a fork without jdk.incubator.vector,
+ * a word at a time, and in a fork with it, a vector at a time, provided the jar was built with -P bench,vector.
+ * Divide bytes by the time for GB/s.
+ * The arena is confined, so a merge stays on one thread rather than splitting into parallel chunks.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BitKernelBenchmark {
+
+    // in L1, in L2, and in main memory
+    @Param({"32768", "1048576", "67108864"})
+    public int bytes;
+
+    private Arena arena;
+    private MemorySegment target;
+    private MemorySegment source;
+    private BloomFilter mapped;
+
+    @Setup
+    public void setup() {
+        arena = Arena.ofConfined();
+        target = randomSegment(1);
+        source = randomSegment(2);
+
+        mapped = BloomFilter.map(target, new BuildInfo()
+                .setVersion(BuildInfo.CURRENT_VERSION)
+                .setHashFunctions((short) 7)
+                .setBloomFilterBitsRequired((long) bytes * Byte.SIZE));
+    }
+
+    @TearDown
+    public void tearDown() {
+        arena.close();
+    }
+
+    @Benchmark
+    public long cardinalityScalar() {
+        return mapped.getBitPopulation();
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+    public long cardinalityVector() {
+        return mapped.getBitPopulation();
+    }
+
+    // OR is idempotent, so merging the same source again does the same work every time
+    @Benchmark
+    public MemorySegment orScalar() {
+        BitwiseMerge.or(target, source);
+        return target;
+    }
+
+    @Benchmark
+    @Fork(value = 1, jvmArgsAppend = {"--add-modules", "jdk.incubator.vector"})
+    public MemorySegment orVector() {
+        BitwiseMerge.or(target, source);
+        return target;
+    }
+
+    private MemorySegment randomSegment(long seed) {
+        byte[] random = new byte[bytes];
+        new Random(seed).nextBytes(random);
+        return arena.allocate(bytes, Long.BYTES).copyFrom(MemorySegment.ofArray(random));
+    }
+}
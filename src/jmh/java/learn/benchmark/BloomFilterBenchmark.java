@@ -0,0 +1,114 @@
+package learn.benchmark;
+
+import learn.dictionary.Read;
+import learn.utils.BloomFilter;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Single-element add and contains on a filter holding the full dictionary. Hits query dictionary
+ * words, which probe every hash function; misses query words that are not in it, which usually stop early.
+ * The ID benchmarks compare numeric keys queried directly against the same keys formatted as strings.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class BloomFilterBenchmark {
+
+    private static final String SOURCE = "./data/original/dict.txt";
+    private static final int BATCH_SIZE = 1024;
+
+    private BloomFilter filter;
+    private String[] members;
+    private String[] strangers;
+    private int next;
+    private String[] batch;
+    private final BitSet found = new BitSet();
+    private BloomFilter idFilter;
+    private long[] ids;
+
+    @Setup
+    public void setup() throws IOException {
+        List<String> words = Read.dictFromRawSource(SOURCE);
+
+        filter = BloomFilter.build(BloomFilter.DFP_DEFAULT, words.size());
+        words.forEach(filter::add);
+
+        members = words.toArray(String[]::new);
+        strangers = words.stream()
+                .map(word -> word + "#")
+                .toArray(String[]::new);
+
+        // every other element a miss, so the batch sees both probe patterns
+        batch = new String[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch[i] = (i % 2 == 0 ? members : strangers)[i * (members.length / BATCH_SIZE)];
+        }
+
+        // every other ID added, as a long and as its string
+        idFilter = BloomFilter.build(BloomFilter.DFP_DEFAULT, words.size());
+        ids = new long[words.size()];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = 1_000_000_000L + i;
+            if (i % 2 == 0) {
+                idFilter.add(ids[i]);
+                idFilter.add(Long.toString(ids[i]));
+            }
+        }
+    }
+
+    private int nextIndex() {
+        int index = next;
+        next = index + 1 == members.length ? 0 : index + 1;
+        return index;
+    }
+
+    @Benchmark
+    public void add() {
+        filter.add(members[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean containsHit() {
+        return filter.contains(members[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean containsMiss() {
+        return filter.contains(strangers[nextIndex()]);
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public BitSet containsAllMixed() {
+        filter.containsAll(batch, found);
+        return found;
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int containsEachMixed() {
+        int nFound = 0;
+        for (String element: batch) {
+            nFound += filter.contains(element) ? 1 : 0;
+        }
+        return nFound;
+    }
+
+    @Benchmark
+    public boolean containsId() {
+        return idFilter.contains(ids[nextIndex()]);
+    }
+
+    @Benchmark
+    public boolean containsIdAsString() {
+        return idFilter.contains(Long.toString(ids[nextIndex()]));
+    }
+}
@@ -0,0 +1,45 @@
+package learn.benchmark;
+
+import learn.controller.Controller;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * The build command end to end: count the source, add every line, write the compiled filter.
+ * Writes to the same data/production file the command line does.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 10)
+@Fork(1)
+public class BuildBenchmark {
+
+    @Param({"./data/original/dict-sub.txt", "./data/original/dict.txt"})
+    public String source;
+
+    @Param({"STANDARD", "BLOCKED"})
+    public String layout;
+
+    @Setup
+    public void setup() throws IOException {
+        Files.createDirectories(Path.of("./data/production/"));
+    }
+
+    @Benchmark
+    public void build() throws IOException {
+        List<String> args = new ArrayList<>(List.of("build", source));
+        if ("BLOCKED".equals(layout)) {
+            args.add("--blocked");
+        }
+
+        new Controller().run(args);
+    }
+}
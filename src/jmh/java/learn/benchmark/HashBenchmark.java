@@ -0,0 +1,45 @@
+package learn.benchmark;
+
+import learn.hash.HashAlgorithm;
+import learn.hash.QuickHash;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class HashBenchmark {
+
+    @Param({"4", "8", "16", "64", "256"})
+    public int keyLength;
+
+    @Param({"FNV1A64", "MURMUR3", "XXHASH64"})
+    public HashAlgorithm algorithm;
+
+    private QuickHash hasher;
+
+    private byte[] bytes;
+    private String text;
+
+    @Setup
+    public void setup() {
+        text = "abcdefghijklmnopqrstuvwxyz".repeat(keyLength / 26 + 1).substring(0, keyLength);
+        bytes = text.getBytes(StandardCharsets.UTF_8);
+        hasher = algorithm.getHasher();
+    }
+
+    @Benchmark
+    public long hashBytes() {
+        return hasher.hash(bytes, 1);
+    }
+
+    @Benchmark
+    public long hashString() {
+        return hasher.hash(text, 1);
+    }
+}
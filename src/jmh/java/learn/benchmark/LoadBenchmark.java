@@ -0,0 +1,38 @@
+package learn.benchmark;
+
+import learn.controller.Controller;
+import learn.dictionary.DictionaryData;
+import learn.dictionary.Read;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Reading a compiled filter of the full dictionary back into the heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LoadBenchmark {
+
+    private static final String COMPILED = "./data/production/dict-compiled.bf";
+
+    @Setup
+    public void setup() throws IOException {
+        Files.createDirectories(Path.of(COMPILED).getParent());
+        new Controller().run(new ArrayList<>(List.of("build", "./data/original/dict.txt")));
+    }
+
+    @Benchmark
+    public DictionaryData dictFromCompiledSource() throws IOException {
+        return Read.dictFromCompiledSource(COMPILED);
+    }
+}
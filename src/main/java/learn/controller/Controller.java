@@ -1,14 +1,52 @@
 package learn.controller;
 
-import learn.dictionary.DictionaryData;
+import learn.dictionary.ContainerCodec;
+import learn.dictionary.MappedDictionaryData;
 import learn.dictionary.Read;
 import learn.dictionary.Write;
+import learn.hash.HashAlgorithm;
+import learn.hash.QuickHash;
+import learn.metrics.FilterMetrics;
+import learn.metrics.InstrumentedFilter;
+import learn.utils.BinaryFuseFilter;
+import learn.utils.BitwiseMerge;
+import learn.utils.BlockedBloomFilter;
 import learn.utils.BloomFilter;
 import learn.utils.BuildInfo;
+import learn.utils.ConcurrentBloomFilter;
+import learn.utils.CountingBloomFilter;
+import learn.utils.MembershipFilter;
+import learn.utils.PartitionedFilter;
+import learn.utils.PayloadChanges;
+import learn.utils.ScalableBloomFilter;
 
+import java.io.BufferedOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import javax.management.JMException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Iterator;
 import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.stream.LongStream;
 
 import static learn.dictionary.Read.countNewlines;
 
@@ -16,29 +54,71 @@ import static learn.dictionary.Read.countNewlines;
  * The interface to manage the control flow between the program and the user.
  * Do not modify files saved by the controller.
  *
- * Seeds for hashing algorithm should be placed in './data/seeds.csv' for initial dictionary build.
- * After initial build, no need to modify 'seeds.csv'.
+ * Compiled filters describe themselves: the header records how their seeds are derived, so no seeds file is needed,
+ * along with a checksum of the payload that is verified while the filter is first queried.
  */
 public class Controller {
     // Related to Bloom filter
-    private BloomFilter filter;
+    private MembershipFilter filter;
     private final BuildInfo versionInfo;
 
     // File locations
-    private static final String DATA_DIRECTORY = "./data/production/";
-    private static final String COMPILED_DICTIONARY_PATH = DATA_DIRECTORY + "dict-compiled.bf";
+    private static final Path DEFAULT_DATA_DIRECTORY = Path.of("./data/production/");
+    private final String compiledDictionaryPath;
+    private final String mergingDictionaryPath;
+    // the counters of a counting build, kept beside the standard filter exported from them
+    private final String countersPath;
+
+    // Building
+    private static final int BUILD_THREADS = Runtime.getRuntime().availableProcessors();
+    private static final long UNKNOWN_ELEMENTS = -1;
+    // word-at-a-time, and recorded in the header so check uses it too
+    private static final HashAlgorithm DEFAULT_HASH_ALGORITHM = HashAlgorithm.XXHASH64;
+    private static final int DEFAULT_SHARDS = 64;
+
+    private int nShards = DEFAULT_SHARDS;
+
+    // Checking
+    private static final int WRITE_BUFFER_BYTES = 1 << 16;
+    private CompletableFuture<Void> payloadCheck = CompletableFuture.completedFuture(null);
+    // shards of a partitioned filter held in memory at once
+    private static final int MAX_RESIDENT_SHARDS = 16;
+
+    // Serving
+    private static final int DEFAULT_PORT = 7411;
+
+    // Statistics
+    // a filter filled to the capacity it was sized for estimates about its DFP, off by the rounding of k
+    private static final double OVER_CAPACITY_TOLERANCE = 1.1;
+
+    private static final String FORMAT_OPTION = "--format=";
+
+    private static final String USAGE = "Missing command: build <filename> [--pow2] [--blocked|--scalable|--counting|--fuse|--partitioned [--shards <n>]|--format=<layout>] [--elements <n>] "
+            + "[--hash fnv1a64|murmur3|xxhash64] [--compress], add [--file <filename>] [arg...], check [arg...], check --stream [--file <filename>], merge [--intersect] <filename> <filename>..., serve [--port <n>|--socket <path>], stats";
 
     // Constructors
     public Controller() throws IOException {
+        this(DEFAULT_DATA_DIRECTORY);
+    }
+
+    /**
+     * @param dataDirectory Where compiled dictionaries are written and read from; created if it does not exist
+     * @throws IOException If the directory cannot be created
+     */
+    public Controller(Path dataDirectory) throws IOException {
+        Files.createDirectories(dataDirectory);
+        this.compiledDictionaryPath = dataDirectory.resolve("dict-compiled.bf").toString();
+        this.mergingDictionaryPath = compiledDictionaryPath + ".merging";
+        this.countersPath = dataDirectory.resolve("dict-compiled.bfc").toString();
         this.filter = null;
         this.versionInfo = new BuildInfo()
-                .setVersion((short) 1);
+                .setVersion(BuildInfo.CURRENT_VERSION);
     }
 
     // either we build the filter or we check the filter for members
     public void run(List<String> args) throws IOException {
         if (args.isEmpty()) {
-            throw new IllegalArgumentException("Missing command: build <filename>, check [arg...]");
+            throw new IllegalArgumentException(USAGE);
         }
 
         List<String> notFound;
@@ -46,87 +126,670 @@ public class Controller {
 
         switch (command) {
             case "build", "-b":
-                buildFilter(args.removeFirst());
+                boolean roundToPowerOfTwo = args.remove("--pow2");
+                versionInfo.setEncoding(args.remove("--compress") ? BuildInfo.Encoding.CONTAINERS : BuildInfo.Encoding.RAW);
+                BuildInfo.Layout layout = removeLayout(args);
+                String elements = removeOption(args, "--elements");
+                long nElements = null == elements ? UNKNOWN_ELEMENTS : Long.parseLong(elements);
+                String shards = removeOption(args, "--shards");
+                nShards = null == shards ? DEFAULT_SHARDS : Integer.parseInt(shards);
+                String hash = removeOption(args, "--hash");
+                versionInfo.setHashAlgorithm(null == hash
+                        ? DEFAULT_HASH_ALGORITHM
+                        : HashAlgorithm.valueOf(hash.toUpperCase(Locale.ROOT)));
+                buildFilter(args.removeFirst(), layout, roundToPowerOfTwo, nElements);
+                return;
+            case "add", "-a":
+                String deltaFile = removeOption(args, "--file");
+                long nAdded = addToFilter(args, deltaFile);
+                System.out.println("Added " + nAdded + " elements");
                 return;
             case "check", "-c":
+                if (args.remove("--stream")) {
+                    checkStream(removeOption(args, "--file"));
+                    return;
+                }
                 notFound = checkFilterFor(args);
                 break;
+            case "merge", "-m":
+                boolean intersect = args.remove("--intersect");
+                BuildInfo merged = mergeFilters(args, intersect);
+                System.out.println("Merged " + args.size() + " filters of " + merged.getBloomFilterBitsRequired() + " bits");
+                return;
+            case "serve", "-s":
+                String port = removeOption(args, "--port");
+                String socket = removeOption(args, "--socket");
+                if (null != port && null != socket) {
+                    throw new IllegalArgumentException("Choose one of --port or --socket");
+                }
+                serveFilter(null != socket
+                        ? UnixDomainSocketAddress.of(socket)
+                        : new InetSocketAddress(InetAddress.getLoopbackAddress(),
+                                null == port ? DEFAULT_PORT : Integer.parseInt(port)));
+                return;
+            case "stats":
+                printStatistics();
+                return;
             default:
-                throw new IllegalArgumentException("Missing command: build <filename>, check [arg...]");
+                throw new IllegalArgumentException(USAGE);
         }
 
         System.out.println("Not found in dictionary:");
         notFound.forEach(System.out::println);
     }
 
+    // removes the layout flag from args, named after the layout or given as --format=<layout>; standard when there is none
+    private static BuildInfo.Layout removeLayout(List<String> args) {
+        List<BuildInfo.Layout> chosen = new ArrayList<>();
+
+        for (BuildInfo.Layout candidate: BuildInfo.Layout.values()) {
+            if (candidate != BuildInfo.Layout.STANDARD && args.remove("--" + candidate.name().toLowerCase(Locale.ROOT))) {
+                chosen.add(candidate);
+            }
+        }
+        for (Iterator<String> it = args.iterator(); it.hasNext(); ) {
+            String arg = it.next();
+            if (arg.startsWith(FORMAT_OPTION)) {
+                chosen.add(layoutNamed(arg.substring(FORMAT_OPTION.length())));
+                it.remove();
+            }
+        }
+
+        if (chosen.size() > 1) {
+            throw new IllegalArgumentException("Choose one layout: " + chosen.stream()
+                    .map(layout -> layout.name().toLowerCase(Locale.ROOT))
+                    .toList());
+        }
+        return chosen.isEmpty() ? BuildInfo.Layout.STANDARD : chosen.getFirst();
+    }
+
+    private static BuildInfo.Layout layoutNamed(String name) {
+        for (BuildInfo.Layout layout: BuildInfo.Layout.values()) {
+            if (layout.name().equalsIgnoreCase(name)) {
+                return layout;
+            }
+        }
+        throw new IllegalArgumentException("Unknown layout: " + name);
+    }
+
+    // removes "name value" from args and returns the value, or null when the option is absent
+    private static String removeOption(List<String> args, String name) {
+        int at = args.indexOf(name);
+        if (at < 0) {
+            return null;
+        }
+        if (at + 1 >= args.size()) {
+            throw new IllegalArgumentException("Missing value for " + name);
+        }
+
+        args.remove(at);
+        return args.remove(at);
+    }
+
     /**
      * The method to compile raw text into a bloom filter
      * @param rawDictionary The text file containing the elements to compile into a Bloom filter
+     * @param layout How the compiled filter lays out its bits
+     * @param roundToPowerOfTwo Round the bit array up to a power of two
+     * @param nElements The number of elements in rawDictionary, or UNKNOWN_ELEMENTS to count them first
      * @return true If Bloom filter was successfully built and saved to disk
      *         false If Bloom filter was not successfully built
      * @throws IOException If problems occur reading file provided by rawDictionary
      */
-    private boolean buildFilter(String rawDictionary) throws IOException {
+    private boolean buildFilter(String rawDictionary, BuildInfo.Layout layout, boolean roundToPowerOfTwo,
+                                long nElements) throws IOException {
         if (null == rawDictionary) {
             return false;
         }
 
-        // first we should verify that we have all the necessary components
-        int nElements = countNewlines(rawDictionary);
-        int nBits = BloomFilter.calculateBitArraySize(BloomFilter.DFP_DEFAULT, nElements);
-        int nHashes = BloomFilter.calculateNumOfHashFunctions(nBits, nElements);
+        // size the filter from the caller's count when given, so the source is only read once;
+        // a binary fuse filter is sized from the keys it gathers instead
+        if (UNKNOWN_ELEMENTS == nElements) {
+            nElements = layout == BuildInfo.Layout.FUSE ? UNKNOWN_ELEMENTS : countNewlines(rawDictionary);
+        } else if (nElements <= 0) {
+            throw new IllegalArgumentException("--elements must be positive: " + nElements);
+        }
 
-        // build the filter
-        filter = BloomFilter.build(BloomFilter.DFP_DEFAULT, nElements);
+        if (layout == BuildInfo.Layout.PARTITIONED && versionInfo.getEncoding() != BuildInfo.Encoding.RAW) {
+            throw new IllegalArgumentException("Partitioned filters are read a shard at a time, so cannot be compressed");
+        }
 
-        // add elements to filter
-        for(String element: Read.dictFromRawSource(rawDictionary)) {
-            filter.add(element);
+        // build the filter and add elements to it, in parallel
+        MemorySegment dictionary = switch (layout) {
+            case STANDARD -> compileStandard(rawDictionary, nElements, roundToPowerOfTwo);
+            case BLOCKED -> compileBlocked(rawDictionary, nElements, roundToPowerOfTwo);
+            case SCALABLE -> compileScalable(rawDictionary, nElements);
+            case COUNTING -> compileCounting(rawDictionary, nElements, roundToPowerOfTwo);
+            case FUSE -> compileFuse(rawDictionary);
+            case PARTITIONED -> compilePartitioned(rawDictionary, nElements, roundToPowerOfTwo);
+        };
+
+        // sparse filters shrink, and load faster than they would read raw
+        if (versionInfo.getEncoding() == BuildInfo.Encoding.CONTAINERS) {
+            dictionary = MemorySegment.ofArray(ContainerCodec.encode(dictionary));
         }
 
-        // save filter to memory
+        // save filter to memory; a counting build serves the standard filter exported from its counters
         byte[] header = versionInfo
-                .setHashFunctions((short) nHashes)
-                .setBloomFilterBitsRequired((short) nBits)
+                .setLayout(layout == BuildInfo.Layout.COUNTING ? BuildInfo.Layout.STANDARD : layout)
+                .setDFP(layout == BuildInfo.Layout.FUSE ? BinaryFuseFilter.FALSE_POSITIVE_RATE : BloomFilter.DFP_DEFAULT)
+                .setPayloadChecksum(BuildInfo.payloadChecksum(dictionary))
                 .generateByteHeader();
 
-        byte[] dictionary = filter.getBitArray().toByteArray();
-
-        Write.dictToBinaryFile(COMPILED_DICTIONARY_PATH, header, dictionary);
+        Write.dictToBinaryFile(compiledDictionaryPath, header, dictionary);
 
         // finished
         return true;
     }
 
+    // ConcurrentBloomFilter shares the standard layout, and lets every build thread add to one bit array
+    private MemorySegment compileStandard(String rawDictionary, long nElements, boolean roundToPowerOfTwo)
+            throws IOException {
+        ConcurrentBloomFilter standard = ConcurrentBloomFilter.build(BloomFilter.DFP_DEFAULT, nElements,
+                roundToPowerOfTwo, versionInfo.getHashAlgorithm().getHasher());
+        filter = standard;
+
+        long nAdded = addRawElements(rawDictionary, BUILD_THREADS, standard::add);
+
+        versionInfo
+                .setElementCount(nAdded)
+                .setHashFunctions((short) standard.getNumOfHashFunctions())
+                .setBloomFilterBitsRequired(standard.getBitCount());
+
+        return standard.toMemorySegment();
+    }
+
+    private MemorySegment compileBlocked(String rawDictionary, long nElements, boolean roundToPowerOfTwo)
+            throws IOException {
+        BlockedBloomFilter blocked = BlockedBloomFilter.build(BloomFilter.DFP_DEFAULT, nElements, roundToPowerOfTwo,
+                versionInfo.getHashAlgorithm().getHasher());
+        filter = blocked;
+
+        long nAdded = addRawElements(rawDictionary, BUILD_THREADS, blocked::add);
+
+        versionInfo
+                .setElementCount(nAdded)
+                .setHashFunctions((short) blocked.getNumOfHashFunctions())
+                .setBloomFilterBitsRequired(blocked.getBitCount());
+
+        return blocked.toMemorySegment();
+    }
+
+    // the chain starts sized for the source, and grows as later additions outnumber it
+    private MemorySegment compileScalable(String rawDictionary, long nElements) throws IOException {
+        ScalableBloomFilter scalable = ScalableBloomFilter.build(BloomFilter.DFP_DEFAULT, nElements,
+                versionInfo.getHashAlgorithm().getHasher());
+        filter = scalable;
+
+        // not thread-safe, so read on one thread
+        long nAdded = addRawElements(rawDictionary, 1, scalable::add);
+
+        versionInfo
+                .setElementCount(nAdded)
+                .setHashFunctions((short) scalable.getNumOfHashFunctions())
+                .setBloomFilterBitsRequired(scalable.getBitCount());
+
+        return scalable.toMemorySegment();
+    }
+
+    // saves the counters to a side file, so members can be removed later, and returns the standard filter to serve
+    private MemorySegment compileCounting(String rawDictionary, long nElements, boolean roundToPowerOfTwo)
+            throws IOException {
+        CountingBloomFilter counting = CountingBloomFilter.build(BloomFilter.DFP_DEFAULT, nElements,
+                roundToPowerOfTwo, versionInfo.getHashAlgorithm().getHasher());
+        filter = counting;
+
+        // not thread-safe, so read on one thread
+        long nAdded = addRawElements(rawDictionary, 1, counting::add);
+
+        versionInfo
+                .setElementCount(nAdded)
+                .setHashFunctions((short) counting.getNumOfHashFunctions())
+                .setBloomFilterBitsRequired(counting.getBitCount());
+
+        MemorySegment counters = counting.toCounterSegment();
+        byte[] countersHeader = new BuildInfo()
+                .setLayout(BuildInfo.Layout.COUNTING)
+                .setVersion(versionInfo.getVersion())
+                .setHashFunctions((short) counting.getNumOfHashFunctions())
+                .setBloomFilterBitsRequired(counting.getBitCount())
+                .setHashAlgorithm(versionInfo.getHashAlgorithm())
+                .setElementCount(nAdded)
+                .setDFP(BloomFilter.DFP_DEFAULT)
+                .setPayloadChecksum(BuildInfo.payloadChecksum(counters))
+                .generateByteHeader();
+        Write.dictToBinaryFile(countersPath, countersHeader, counters);
+
+        return counting.toMemorySegment();
+    }
+
+    // immutable, so every key is gathered before the fingerprints are solved for all of them at once
+    private MemorySegment compileFuse(String rawDictionary) throws IOException {
+        QuickHash quickHash = versionInfo.getHashAlgorithm().getHasher();
+        LongStream.Builder keys = LongStream.builder();
+
+        // the builder is not thread-safe, so read on one thread
+        long nAdded = addRawElements(rawDictionary, 1,
+                (bytes, offset, length) -> keys.add(BinaryFuseFilter.keyOf(bytes, offset, length, quickHash)));
+
+        BinaryFuseFilter fuse = BinaryFuseFilter.fromKeys(keys.build().toArray(), quickHash);
+        filter = fuse;
+
+        versionInfo
+                .setElementCount(nAdded)
+                .setHashFunctions((short) fuse.getNumOfHashFunctions())
+                .setBloomFilterBitsRequired(fuse.getBitCount());
+
+        return fuse.toMemorySegment();
+    }
+
+    // routes each element to one of nShards standard filters, each sized for its share with some slack
+    private MemorySegment compilePartitioned(String rawDictionary, long nElements, boolean roundToPowerOfTwo)
+            throws IOException {
+        if (nShards < 1) {
+            throw new IllegalArgumentException("--shards must be positive: " + nShards);
+        }
+
+        QuickHash quickHash = versionInfo.getHashAlgorithm().getHasher();
+        // routing is binomial, so allow three standard deviations over the mean share
+        double share = (double) nElements / nShards;
+        long nShardElements = Math.max(1, (long) Math.ceil(share + 3 * Math.sqrt(share)));
+
+        ConcurrentBloomFilter[] shards = new ConcurrentBloomFilter[nShards];
+        for (int i = 0; i < nShards; i++) {
+            shards[i] = ConcurrentBloomFilter.build(BloomFilter.DFP_DEFAULT, nShardElements, roundToPowerOfTwo,
+                    quickHash);
+        }
+
+        long nAdded = addRawElements(rawDictionary, BUILD_THREADS, (bytes, offset, length) ->
+                shards[PartitionedFilter.shardOf(bytes, offset, length, quickHash, nShards)].add(bytes, offset, length));
+
+        MemorySegment[] payloads = new MemorySegment[nShards];
+        long[] shardBits = new long[nShards];
+        long nBits = 0;
+        for (int i = 0; i < nShards; i++) {
+            payloads[i] = shards[i].toMemorySegment();
+            shardBits[i] = shards[i].getBitCount();
+            nBits += shardBits[i];
+        }
+
+        versionInfo
+                .setElementCount(nAdded)
+                .setHashFunctions((short) shards[0].getNumOfHashFunctions())
+                .setBloomFilterBitsRequired(nBits);
+
+        return PartitionedFilter.compile(payloads, shardBits, Arena.ofAuto());
+    }
+
+    // adds every line of a raw source through add, returning how many lines there were
+    private static long addRawElements(String rawDictionary, int nThreads, Read.ElementBytesConsumer add)
+            throws IOException {
+        LongAdder nAdded = new LongAdder();
+
+        Read.forEachRawElementBytes(rawDictionary, nThreads, (bytes, offset, length) -> {
+            add.accept(bytes, offset, length);
+            nAdded.increment();
+        });
+
+        return nAdded.sum();
+    }
+
+    /**
+     * The method to add elements to an already compiled filter without rebuilding it. Sets their bits in place
+     * in the mapped file, so only the pages holding those bits are written back, and bumps the element count.
+     * A scalable filter, which may chain a larger segment to hold them, is written out again instead.
+     * @param elementsToAdd The elements to add
+     * @param deltaFile A text file of further elements to add, one per line, or null
+     * @return The number of elements added
+     * @throws IOException If problems occur reading or writing the compiled filter or reading deltaFile
+     */
+    private long addToFilter(List<String> elementsToAdd, String deltaFile) throws IOException {
+        if (elementsToAdd.isEmpty() && null == deltaFile) {
+            throw new IllegalArgumentException(USAGE);
+        }
+
+        BuildInfo header;
+        long storedBytes;
+        try (Arena arena = Arena.ofConfined()) {
+            MappedDictionaryData dData = Read.mapCompiledSource(compiledDictionaryPath, arena);
+            header = dData.header;
+            storedBytes = dData.stored.byteSize();
+
+            // the payload is left unread: its checksum is updated for the bits set, so corruption stays detectable
+            verifyHeader(header);
+        }
+
+        if (header.getLayout() == BuildInfo.Layout.SCALABLE) {
+            return addToScalable(elementsToAdd, deltaFile);
+        }
+
+        // older filters map hashes over a capacity recovered from the file's length, which adding could change
+        if (header.getLayout() != BuildInfo.Layout.STANDARD || header.getVersion() < BuildInfo.CURRENT_VERSION) {
+            throw new IllegalArgumentException("Only standard filters of version " + BuildInfo.CURRENT_VERSION
+                    + " and scalable filters can be added to; build it again instead");
+        }
+        if (header.getEncoding() != BuildInfo.Encoding.RAW) {
+            throw new IllegalArgumentException("Compressed filters cannot be added to in place; build it again instead");
+        }
+
+        int headerSize = BuildInfo.headerByteSize(header.getVersion());
+        long payloadBytes = (header.getBloomFilterBitsRequired() + Byte.SIZE - 1) / Byte.SIZE;
+
+        // shared, since the delta file is read on a pool thread
+        try (Arena arena = Arena.ofShared()) {
+            MemorySegment file = Write.mapForUpdate(compiledDictionaryPath, headerSize + payloadBytes, arena);
+            MemorySegment payload = file.asSlice(headerSize);
+            PayloadChanges changes = new PayloadChanges(payload.byteSize());
+            BloomFilter standard = BloomFilter.map(payload, header, changes);
+
+            elementsToAdd.forEach(standard::add);
+            long nAdded = elementsToAdd.size();
+
+            if (null != deltaFile) {
+                // not thread-safe, so read on one thread
+                nAdded += addRawElements(deltaFile, 1, standard::add);
+            }
+
+            byte[] updated = header
+                    .setElementCount(header.getElementCount() + nAdded)
+                    .setPayloadChecksum(changes.updateChecksum(header.getPayloadChecksum(), storedBytes, payload))
+                    .generateByteHeader();
+            MemorySegment.copy(updated, 0, file, ValueLayout.JAVA_BYTE, 0, updated.length);
+
+            file.force();
+            return nAdded;
+        }
+    }
+
+    // a scalable filter chains larger segments as it fills, so it is added to in memory and written out again
+    private long addToScalable(List<String> elementsToAdd, String deltaFile) throws IOException {
+        BuildInfo header;
+        ScalableBloomFilter scalable;
+        try (Arena arena = Arena.ofConfined()) {
+            MappedDictionaryData dData = Read.mapCompiledSource(compiledDictionaryPath, arena);
+            header = dData.header;
+            verifyPayload(dData);
+
+            // copied, since the mapping is read-only and the file is replaced
+            MemorySegment segments = Arena.ofAuto().allocate(dData.dictionary.byteSize(), Long.BYTES)
+                    .copyFrom(dData.dictionary);
+            scalable = ScalableBloomFilter.map(segments, header);
+        }
+
+        elementsToAdd.forEach(scalable::add);
+        long nAdded = elementsToAdd.size();
+
+        if (null != deltaFile) {
+            // not thread-safe, so read on one thread
+            nAdded += addRawElements(deltaFile, 1, scalable::add);
+        }
+
+        MemorySegment dictionary = scalable.toMemorySegment();
+        if (header.getEncoding() == BuildInfo.Encoding.CONTAINERS) {
+            dictionary = MemorySegment.ofArray(ContainerCodec.encode(dictionary));
+        }
+
+        byte[] updated = header
+                .setElementCount(header.getElementCount() + nAdded)
+                .setBloomFilterBitsRequired(scalable.getBitCount())
+                .setPayloadChecksum(BuildInfo.payloadChecksum(dictionary))
+                .generateByteHeader();
+
+        // only replace the compiled dictionary once the new one is complete
+        Write.dictToBinaryFile(mergingDictionaryPath, updated, dictionary);
+        Files.move(Path.of(mergingDictionaryPath), Path.of(compiledDictionaryPath),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        return nAdded;
+    }
+
+    /**
+     * The method to combine compiled filters, such as those of a sharded build, into the compiled dictionary.
+     * Works on the mapped files: the first filter is copied, then every other one is merged into the copy
+     * in parallel chunks, and the copy replaces the compiled dictionary once it is complete.
+     * @param compiledFilters The compiled filters to merge, which must all be mergeable with one another
+     * @param intersect Keep only the bits set in every filter, instead of the bits set in any of them
+     * @return The header of the merged filter
+     * @throws IOException If problems occur reading the filters or writing the merged one
+     */
+    private BuildInfo mergeFilters(List<String> compiledFilters, boolean intersect) throws IOException {
+        if (compiledFilters.size() < 2) {
+            throw new IllegalArgumentException(USAGE);
+        }
+
+        BuildInfo header;
+        // shared, so the merge can be split across threads
+        try (Arena arena = Arena.ofShared()) {
+            List<MappedDictionaryData> filters = new ArrayList<>();
+            for (String compiledFilter: compiledFilters) {
+                MappedDictionaryData dData = Read.mapCompiledSource(compiledFilter, arena);
+                verifyHeader(dData.header);
+                verifyPayload(dData);
+                if (!filters.isEmpty()) {
+                    filters.getFirst().header.checkMergeable(dData.header);
+                }
+                filters.add(dData);
+            }
+
+            // payloads saved from a BitSet may be trimmed, so size the result for the longest
+            long payloadBytes = 0;
+            long nElements = intersect ? Long.MAX_VALUE : 0;
+            for (MappedDictionaryData dData: filters) {
+                payloadBytes = Math.max(payloadBytes, dData.dictionary.byteSize());
+                // the sum of the counts bounds a union, and the least of them an intersection
+                nElements = intersect
+                        ? Math.min(nElements, dData.header.getElementCount())
+                        : nElements + dData.header.getElementCount();
+            }
+
+            // rewritten under the current version, which maps elements like any mergeable one
+            header = filters.getFirst().header
+                    .setVersion(BuildInfo.CURRENT_VERSION)
+                    .setEncoding(BuildInfo.Encoding.RAW)
+                    .setElementCount(nElements);
+            int headerSize = BuildInfo.headerByteSize();
+
+            Write.dictToBinaryFile(mergingDictionaryPath, header.generateByteHeader(), filters.getFirst().dictionary);
+            MemorySegment file = Write.mapForUpdate(mergingDictionaryPath, headerSize + payloadBytes, arena);
+            MemorySegment payload = file.asSlice(headerSize);
+
+            for (MappedDictionaryData dData: filters.subList(1, filters.size())) {
+                if (intersect) {
+                    BitwiseMerge.and(payload, dData.dictionary);
+                } else {
+                    BitwiseMerge.or(payload, dData.dictionary);
+                }
+            }
+
+            byte[] merged = header
+                    .setPayloadChecksum(BuildInfo.payloadChecksum(payload))
+                    .generateByteHeader();
+            MemorySegment.copy(merged, 0, file, ValueLayout.JAVA_BYTE, 0, merged.length);
+            file.force();
+        }
+
+        // only replace the compiled dictionary, which may have been one of the filters merged, once complete
+        Files.move(Path.of(mergingDictionaryPath), Path.of(compiledDictionaryPath),
+                StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+
+        return header;
+    }
+
     /**
      * The method to check elements in a compiled filter. Assumes buildFilter() has already been invoked and
-     * the filter has been compiled separately.
+     * the filter has been compiled separately. Standard filters are queried straight from the mapped file,
+     * and partitioned ones only read the shards the elements are routed to.
      * @param elementsToCheck The list of Strings to check against the filter
      * @return The elements not present in the filter
      * @throws IOException If problems occur reading filter binary file generated by buildFilter()
      */
     private List<String> checkFilterFor(List<String> elementsToCheck) throws IOException {
-        // read the dictionary from memory
-        DictionaryData dData = Read.dictFromCompiledSource(COMPILED_DICTIONARY_PATH);
-
-        verifyHeader(dData.header);
+        filter = loadFilter();
 
-        // build the filter
-        filter = BloomFilter.build(dData.dictionary, dData.header.getNHashFunctions());
+        // run every element through the filter as one batch, so its probes overlap
+        String[] elements = elementsToCheck.toArray(String[]::new);
+        BitSet found = new BitSet(elements.length);
+        filter.containsAll(elements, found);
+        awaitPayloadCheck();
 
-        // for each element to check, run through filter
         ArrayList<String> notFound = new ArrayList<>();
 
-        for(String element: elementsToCheck) {
-            if (!filter.contains(element)) {
-                notFound.add(element);
-            }
+        for (int i = found.nextClearBit(0); i < elements.length; i = found.nextClearBit(i + 1)) {
+            notFound.add(elements[i]);
         }
 
         // return list
         return notFound;
     }
 
+    /**
+     * The method to spell-check a whole text against a compiled filter. Checks each word as it is read and writes
+     * every miss as "line:column word" as soon as it is found, so memory use does not depend on the size of the text.
+     * A capitalised word is also accepted in lower case. A corrupted compiled filter is only reported once the text has been checked.
+     * @param source The text file to check, or null to check standard input
+     * @throws IOException If problems occur reading the compiled filter or the text
+     */
+    private void checkStream(String source) throws IOException {
+        MembershipFilter dictionary = loadFilter();
+        filter = dictionary;
+
+        // not closed, since it wraps System.out
+        OutputStream out = new BufferedOutputStream(System.out, WRITE_BUFFER_BYTES);
+
+        try (ReadableByteChannel text = null == source
+                ? Channels.newChannel(System.in)
+                : FileChannel.open(Path.of(source))) {
+            Read.forEachWord(text, (bytes, offset, length, line, column) -> {
+                if (!containsIgnoringCapitals(dictionary, bytes, offset, length)) {
+                    out.write((line + ":" + column + " ").getBytes(StandardCharsets.US_ASCII));
+                    out.write(bytes, offset, length);
+                    out.write('\n');
+                }
+            });
+            awaitPayloadCheck();
+        } finally {
+            out.flush();
+        }
+    }
+
+    // sentence starts and headings are capitalised, so a word that misses is looked up again in lower case
+    private static boolean containsIgnoringCapitals(MembershipFilter dictionary, byte[] bytes, int offset, int length) {
+        if (dictionary.contains(bytes, offset, length)) {
+            return true;
+        }
+
+        String word = new String(bytes, offset, length, StandardCharsets.UTF_8);
+        String lowerCase = word.toLowerCase(Locale.ROOT);
+        return !lowerCase.equals(word) && dictionary.contains(lowerCase);
+    }
+
+    /**
+     * The method to answer membership queries over a local socket until the process is stopped. The compiled
+     * filter is loaded once and shared by every connection; see QueryServer for the protocol. Queries are counted
+     * and sampled for latency, published with the filter's saturation as a JMX MXBean.
+     * @param address The loopback TCP address or Unix domain socket to listen on
+     * @throws IOException If problems occur reading the compiled filter or accepting connections
+     */
+    private void serveFilter(SocketAddress address) throws IOException {
+        MembershipFilter dictionary = loadFilter();
+        FilterMetrics metrics = new FilterMetrics(dictionary);
+        filter = new InstrumentedFilter(dictionary, metrics);
+
+        try {
+            System.out.println("Publishing metrics as " + metrics.register(compiledDictionaryPath));
+        } catch (JMException e) {
+            // serving matters more than watching it
+            System.err.println("Cannot publish metrics: " + e.getMessage());
+        }
+
+        // a checksum that already failed is reported as such, before anything is bound
+        if (payloadCheck.isDone()) {
+            awaitPayloadCheck();
+        }
+
+        try (QueryServer server = QueryServer.bind(filter, address)) {
+            // read before a failing checksum can stop the server
+            SocketAddress localAddress = server.getLocalAddress();
+
+            // stop serving a corrupted filter as soon as its checksum fails
+            payloadCheck.whenComplete((ignored, failure) -> {
+                if (null != failure) {
+                    try {
+                        server.stop();
+                    } catch (IOException e) {
+                        // reported below, once serve() returns
+                    }
+                }
+            });
+
+            System.out.println("Serving " + compiledDictionaryPath + " on " + localAddress);
+            server.serve();
+        }
+
+        awaitPayloadCheck();
+    }
+
+    /**
+     * The method to report how full the compiled filter is. The bit population of a standard filter gives an
+     * estimate of the elements added and of the false positive rate they cause, compared here with the rate the
+     * filter was built for; other layouts only report their header.
+     * @throws IOException If problems occur reading the compiled filter
+     */
+    private void printStatistics() throws IOException {
+        try (Arena arena = Arena.ofConfined()) {
+            MappedDictionaryData dData = Read.mapCompiledSource(compiledDictionaryPath, arena);
+            verifyHeader(dData.header);
+            verifyPayload(dData);
+
+            BuildInfo header = dData.header;
+            System.out.println("Layout: " + header.getLayout() + ", version " + header.getVersion()
+                    + ", " + header.getHashAlgorithm() + ", " + header.getEncoding());
+            System.out.println("Bits: " + header.getBloomFilterBitsRequired()
+                    + ", hash functions: " + header.getNHashFunctions());
+            System.out.println("Elements added: " + header.getElementCount());
+
+            if (header.getLayout() != BuildInfo.Layout.STANDARD) {
+                System.out.println("Saturation is only estimated for standard filters");
+                return;
+            }
+
+            BloomFilter bloomFilter = BloomFilter.map(dData.dictionary, header);
+            double estimatedFpr = bloomFilter.estimateFalsePositiveRate();
+            System.out.printf(Locale.ROOT, "Bits set: %d (fill ratio %.4f)%n",
+                    bloomFilter.getBitPopulation(), bloomFilter.getFillRatio());
+            System.out.printf(Locale.ROOT, "Estimated elements: %.0f%n", bloomFilter.estimateElementCount());
+            System.out.printf(Locale.ROOT, "Estimated false positive rate: %.6f (desired %.6f)%n",
+                    estimatedFpr, bloomFilter.getDFP());
+            if (estimatedFpr > OVER_CAPACITY_TOLERANCE * bloomFilter.getDFP()) {
+                System.out.println("Warning: the filter is over capacity; rebuild it with more bits");
+            }
+        }
+    }
+
+    // maps the compiled filter and builds it for the layout it was compiled with
+    private MembershipFilter loadFilter() throws IOException {
+        // map the dictionary instead of reading it; unmapped once the filter is unreachable
+        MappedDictionaryData dData = Read.mapCompiledSource(compiledDictionaryPath, Arena.ofAuto());
+
+        verifyHeader(dData.header);
+
+        // checksummed alongside the first queries, so a large payload adds nothing to load time;
+        // shards of a partitioned filter are instead checked one at a time, as they are first read
+        if (dData.header.getLayout() != BuildInfo.Layout.PARTITIONED) {
+            payloadCheck = CompletableFuture.runAsync(() -> verifyPayload(dData));
+        }
+
+        return switch (dData.header.getLayout()) {
+            case STANDARD -> BloomFilter.map(dData.dictionary, dData.header);
+            case BLOCKED -> BlockedBloomFilter.build(dData.dictionary.toArray(ValueLayout.JAVA_BYTE), dData.header);
+            case SCALABLE -> ScalableBloomFilter.map(dData.dictionary, dData.header);
+            case COUNTING -> CountingBloomFilter.build(dData.dictionary.toArray(ValueLayout.JAVA_BYTE), dData.header);
+            case FUSE -> BinaryFuseFilter.map(dData.dictionary, dData.header);
+            case PARTITIONED -> PartitionedFilter.open(Path.of(compiledDictionaryPath),
+                    BuildInfo.headerByteSize(dData.header.getVersion()), dData.header, MAX_RESIDENT_SHARDS);
+        };
+    }
+
     private void verifyHeader(BuildInfo other) {
         if (null == other) {
             throw new Error("Incorrect binary file passed to program.");
@@ -136,7 +799,27 @@ public class Controller {
         }
     }
 
+    private static void verifyPayload(MappedDictionaryData dData) {
+        if (dData.header.hasPayloadChecksum()
+                && BuildInfo.payloadChecksum(dData.stored) != dData.header.getPayloadChecksum()) {
+            throw new Error("Corrupted compiled dictionary: payload checksum does not match header.");
+        }
+    }
+
+    // waits for the payload check started by loadFilter(), so no answer from a corrupted filter is trusted
+    private void awaitPayloadCheck() {
+        try {
+            payloadCheck.join();
+        } catch (CompletionException e) {
+            if (e.getCause() instanceof Error error) {
+                throw error;
+            }
+            throw e;
+        }
+    }
+
+    // older versions remain readable
     private boolean isCorrectVersion(BuildInfo other) {
-        return other.getVersion() == this.versionInfo.getVersion();
+        return other.getVersion() >= BuildInfo.VERSION_SEEDED && other.getVersion() <= this.versionInfo.getVersion();
     }
 }
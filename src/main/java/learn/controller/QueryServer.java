@@ -0,0 +1,221 @@
+package learn.controller;
+
+import learn.utils.MembershipFilter;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.Writer;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.BitSet;
+
+/**
+ * Answers membership queries from a resident filter over a TCP or Unix domain socket, one virtual thread
+ * per connection. The protocol is line based, in UTF-8: each request line holds a batch of elements
+ * separated by whitespace, and is answered by one line with a '1' (may be present) or '0' (not present)
+ * per element, in order. A blank line is answered by an empty one. Requests may be pipelined; replies to
+ * requests already received in full are flushed together. A request line longer than MAX_LINE_BYTES is
+ * answered by a line starting "ERR", and the connection is closed.
+ *
+ * The filter is shared by every connection, so it must not be added to while the server runs.
+ */
+public class QueryServer implements Closeable {
+    // the longest request line, terminator included; the read buffer holds one, so it never grows
+    public static final int MAX_LINE_BYTES = 1 << 13;
+
+    private final MembershipFilter filter;
+    private final ServerSocketChannel server;
+
+    private QueryServer(MembershipFilter filter, ServerSocketChannel server) {
+        this.filter = filter;
+        this.server = server;
+    }
+
+    /**
+     * Binds a server for a filter, without accepting connections yet
+     * @param filter The filter to answer queries from
+     * @param address Where to listen: an InetSocketAddress, or a UnixDomainSocketAddress whose file must not exist
+     * @return The bound server
+     * @throws IOException If problems occur binding to the address
+     */
+    public static QueryServer bind(MembershipFilter filter, SocketAddress address) throws IOException {
+        if (null == filter) {
+            throw new IllegalArgumentException("filter cannot be null");
+        }
+
+        ServerSocketChannel server = address instanceof UnixDomainSocketAddress
+                ? ServerSocketChannel.open(StandardProtocolFamily.UNIX)
+                : ServerSocketChannel.open();
+
+        try {
+            server.bind(address);
+        } catch (IOException e) {
+            server.close();
+            throw e;
+        }
+
+        return new QueryServer(filter, server);
+    }
+
+    /**
+     * Returns where the server listens, with the port chosen if it was bound to port 0
+     */
+    public SocketAddress getLocalAddress() throws IOException {
+        return server.getLocalAddress();
+    }
+
+    /**
+     * Accepts connections until the server is closed, answering each on its own virtual thread
+     * @throws IOException If problems occur accepting a connection
+     */
+    public void serve() throws IOException {
+        while (server.isOpen()) {
+            SocketChannel connection;
+            try {
+                connection = server.accept();
+            } catch (ClosedChannelException e) {
+                return;
+            }
+
+            Thread.ofVirtual().name("query-connection").start(() -> answer(connection));
+        }
+    }
+
+    /**
+     * Stops accepting connections, so serve() returns; connections already accepted are answered until
+     * their clients close them. Safe to call from any thread, and more than once.
+     * The socket file of a Unix domain socket is kept until the server is closed.
+     * @throws IOException If problems occur closing the listening socket
+     */
+    public void stop() throws IOException {
+        server.close();
+    }
+
+    /**
+     * Stops accepting connections, as stop() does, and removes the socket file of a Unix domain socket
+     */
+    @Override
+    public void close() throws IOException {
+        SocketAddress address = server.isOpen() ? server.getLocalAddress() : null;
+        stop();
+
+        if (address instanceof UnixDomainSocketAddress unixAddress) {
+            Files.deleteIfExists(unixAddress.getPath());
+        }
+    }
+
+    // ----------------------------- HELPERS -----------------------------
+
+    private void answer(SocketChannel connection) {
+        try (connection;
+             Writer out = new BufferedWriter(Channels.newWriter(connection, StandardCharsets.UTF_8))) {
+            LineReader in = new LineReader(connection);
+            BitSet found = new BitSet();
+            StringBuilder reply = new StringBuilder();
+
+            String line;
+            try {
+                while ((line = in.readLine()) != null) {
+                    String[] elements = line.isBlank() ? new String[0] : line.strip().split("\\s+");
+                    filter.containsAll(elements, found);
+
+                    reply.setLength(0);
+                    for (int i = 0; i < elements.length; i++) {
+                        reply.append(found.get(i) ? '1' : '0');
+                    }
+                    out.write(reply.append('\n').toString());
+
+                    // hold the reply while another whole request is waiting, so they go back together;
+                    // otherwise the next read may block, with the client waiting on this reply
+                    if (!in.hasBufferedLine()) {
+                        out.flush();
+                    }
+                }
+            } catch (LineTooLongException e) {
+                // the rest of the line cannot be told from the next request, so nothing more is answered
+                out.write("ERR " + e.getMessage() + "\n");
+                out.flush();
+            }
+        } catch (IOException e) {
+            System.err.println("Query connection closed: " + e.getMessage());
+        }
+    }
+
+    // reads UTF-8 lines from a channel, and tells whether the next one can be read without blocking
+    private static final class LineReader {
+        private final ReadableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(MAX_LINE_BYTES).flip();
+        private boolean endOfStream;
+
+        LineReader(ReadableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        // returns the next line without its terminator, or null at the end of the stream
+        String readLine() throws IOException {
+            int end;
+            while ((end = nextNewline()) < 0) {
+                if (buffer.position() == 0 && buffer.limit() == buffer.capacity()) {
+                    throw new LineTooLongException();
+                }
+                if (endOfStream) {
+                    if (!buffer.hasRemaining()) {
+                        return null;
+                    }
+                    // the last line need not be terminated
+                    end = buffer.limit();
+                    break;
+                }
+                fill();
+            }
+
+            int start = buffer.position();
+            buffer.position(Math.min(end + 1, buffer.limit()));
+            if (end > start && buffer.get(end - 1) == '\r') {
+                end--;
+            }
+
+            return new String(buffer.array(), buffer.arrayOffset() + start, end - start, StandardCharsets.UTF_8);
+        }
+
+        // true when a whole line is already buffered
+        boolean hasBufferedLine() {
+            return nextNewline() >= 0;
+        }
+
+        private int nextNewline() {
+            for (int i = buffer.position(); i < buffer.limit(); i++) {
+                if (buffer.get(i) == '\n') {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        // reads more of the stream after what is buffered, moving the partial line to the front first
+        private void fill() throws IOException {
+            buffer.compact();
+            if (channel.read(buffer) < 0) {
+                endOfStream = true;
+            }
+            buffer.flip();
+        }
+    }
+
+    // a request line that fills the read buffer without ending
+    private static final class LineTooLongException extends IOException {
+        LineTooLongException() {
+            super("request line longer than " + MAX_LINE_BYTES + " bytes");
+        }
+    }
+}
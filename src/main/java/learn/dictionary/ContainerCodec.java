@@ -0,0 +1,174 @@
+package learn.dictionary;
+
+import java.io.ByteArrayOutputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.BitSet;
+
+/**
+ * Compresses the payload of a compiled filter in Roaring-style containers. The payload is cut into chunks of
+ * 65536 bits, and each chunk is saved as whichever of three containers is smallest: its bitmap as is, the
+ * positions of its set bits, or the runs of its set bits. Dense chunks cost one byte more than their bitmap,
+ * while sparse or clustered ones shrink to a few bytes per set bit or run.
+ *
+ * Decoding writes each container straight into a zeroed segment: bitmaps are copied in bulk, runs filled
+ * a byte at a time, and positions set bit by bit, with no per-bit work for the zeros in between.
+ *
+ * The encoding is little-endian: the payload's size in bytes (long), then per chunk its container type (byte)
+ * followed by either the chunk's bytes, or a count (unsigned short) of positions (unsigned short each)
+ * or of runs (unsigned short start, unsigned short length less one each).
+ */
+public final class ContainerCodec {
+    private static final int CHUNK_BYTES = 1 << 13;
+    private static final int CHUNK_WORDS = CHUNK_BYTES / Long.BYTES;
+
+    private static final byte BITMAP = 0;
+    private static final byte POSITIONS = 1;
+    private static final byte RUNS = 2;
+
+    private static final ValueLayout.OfShort SHORT_LE = ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfLong LONG_LE = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    private ContainerCodec() {}
+
+    /**
+     * Compresses a payload
+     * @param raw The payload to compress, such as the bit array of a compiled filter
+     * @return The compressed payload, read back by decode()
+     */
+    public static byte[] encode(MemorySegment raw) {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ByteBuffer scratch = ByteBuffer.allocate(1 + CHUNK_BYTES).order(ByteOrder.LITTLE_ENDIAN);
+
+        scratch.putLong(raw.byteSize());
+        out.write(scratch.array(), 0, scratch.position());
+
+        byte[] chunk = new byte[CHUNK_BYTES];
+        long[] words = new long[CHUNK_WORDS];
+
+        for (long start = 0; start < raw.byteSize(); start += CHUNK_BYTES) {
+            int chunkBytes = (int) Math.min(CHUNK_BYTES, raw.byteSize() - start);
+            MemorySegment.copy(raw, ValueLayout.JAVA_BYTE, start, chunk, 0, chunkBytes);
+            Arrays.fill(chunk, chunkBytes, CHUNK_BYTES, (byte) 0);
+            ByteBuffer.wrap(chunk).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(words);
+
+            // a run starts at each set bit whose lower neighbour is clear
+            int nBits = 0;
+            int nRuns = 0;
+            long carry = 0;
+            for (long word: words) {
+                nBits += Long.bitCount(word);
+                nRuns += Long.bitCount(word & ~((word << 1) | carry));
+                carry = word >>> (Long.SIZE - 1);
+            }
+
+            int positionsBytes = Short.BYTES + nBits * Short.BYTES;
+            int runsBytes = Short.BYTES + nRuns * 2 * Short.BYTES;
+
+            scratch.clear();
+            if (positionsBytes < chunkBytes && positionsBytes <= runsBytes) {
+                scratch.put(POSITIONS).putShort((short) nBits);
+                BitSet bits = BitSet.valueOf(words);
+                for (int bit = bits.nextSetBit(0); bit >= 0; bit = bits.nextSetBit(bit + 1)) {
+                    scratch.putShort((short) bit);
+                }
+            } else if (runsBytes < chunkBytes) {
+                scratch.put(RUNS).putShort((short) nRuns);
+                BitSet bits = BitSet.valueOf(words);
+                for (int bit = bits.nextSetBit(0); bit >= 0; bit = bits.nextSetBit(bit)) {
+                    int end = bits.nextClearBit(bit);
+                    scratch.putShort((short) bit).putShort((short) (end - bit - 1));
+                    bit = end;
+                }
+            } else {
+                scratch.put(BITMAP).put(chunk, 0, chunkBytes);
+            }
+
+            if (out.size() > Integer.MAX_VALUE - 8 - scratch.position()) {
+                throw new UnsupportedOperationException("Compressed payload too large for a byte array");
+            }
+            out.write(scratch.array(), 0, scratch.position());
+        }
+
+        return out.toByteArray();
+    }
+
+    /**
+     * Decompresses a payload
+     * @param encoded A payload compressed by encode()
+     * @param arena Allocates the decompressed payload
+     * @return The payload as it was before compression
+     */
+    public static MemorySegment decode(MemorySegment encoded, Arena arena) {
+        try {
+            long rawBytes = encoded.get(LONG_LE, 0);
+            if (rawBytes < 0) {
+                throw new IllegalArgumentException("Invalid compressed payload: negative size " + rawBytes);
+            }
+
+            // allocated zeroed, so only set bits are written
+            MemorySegment raw = arena.allocate(rawBytes, Long.BYTES);
+            long in = Long.BYTES;
+
+            for (long start = 0; start < rawBytes; start += CHUNK_BYTES) {
+                int chunkBytes = (int) Math.min(CHUNK_BYTES, rawBytes - start);
+                byte type = encoded.get(ValueLayout.JAVA_BYTE, in++);
+
+                switch (type) {
+                    case BITMAP -> {
+                        MemorySegment.copy(encoded, in, raw, start, chunkBytes);
+                        in += chunkBytes;
+                    }
+                    case POSITIONS -> {
+                        int nBits = unsignedShort(encoded, in);
+                        in += Short.BYTES;
+                        for (int i = 0; i < nBits; i++, in += Short.BYTES) {
+                            setBit(raw, start * Byte.SIZE + unsignedShort(encoded, in));
+                        }
+                    }
+                    case RUNS -> {
+                        int nRuns = unsignedShort(encoded, in);
+                        in += Short.BYTES;
+                        for (int i = 0; i < nRuns; i++, in += 2 * Short.BYTES) {
+                            long from = start * Byte.SIZE + unsignedShort(encoded, in);
+                            setBits(raw, from, from + unsignedShort(encoded, in + Short.BYTES) + 1);
+                        }
+                    }
+                    default -> throw new IllegalArgumentException("Invalid compressed payload: unknown container " + type);
+                }
+            }
+
+            return raw;
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid compressed payload: truncated", e);
+        }
+    }
+
+    // ----------------------------- HELPERS -----------------------------
+
+    private static int unsignedShort(MemorySegment segment, long offset) {
+        return Short.toUnsignedInt(segment.get(SHORT_LE, offset));
+    }
+
+    private static void setBit(MemorySegment raw, long bit) {
+        long at = bit >>> 3;
+        raw.set(ValueLayout.JAVA_BYTE, at, (byte) (raw.get(ValueLayout.JAVA_BYTE, at) | (1 << (bit & 7))));
+    }
+
+    // sets bits [from, to), filling the whole bytes between the ends in bulk
+    private static void setBits(MemorySegment raw, long from, long to) {
+        while (from < to && (from & 7) != 0) {
+            setBit(raw, from++);
+        }
+        while (to > from && (to & 7) != 0) {
+            setBit(raw, --to);
+        }
+        if (from < to) {
+            raw.asSlice(from >>> 3, (to - from) >>> 3).fill((byte) -1);
+        }
+    }
+}
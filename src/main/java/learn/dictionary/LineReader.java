@@ -0,0 +1,150 @@
+package learn.dictionary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Reads the lines of a file that start within [start, end), straight from a FileChannel into a reusable buffer.
+ * A line belongs to the range containing its first byte, so readers over adjacent ranges see every line once.
+ * Lines end at '\n'; a trailing '\r' is dropped.
+ */
+final class LineReader {
+    private final FileChannel channel;
+    private final long end;
+
+    private byte[] bytes;
+    private long bufferPosition; // file position of bytes[0]
+    private int limit;
+    private int cursor;
+    private boolean eof;
+
+    private int lineStart;
+    private int lineLength;
+
+    LineReader(FileChannel channel, long start, long end, int bufferBytes) throws IOException {
+        this.channel = channel;
+        this.end = end;
+        this.bytes = new byte[bufferBytes];
+        this.bufferPosition = start > 0 ? start - 1 : 0;
+        fill();
+
+        if (start > 0) {
+            skipPastNewline();
+        }
+    }
+
+    /**
+     * Advances to the next line
+     * @return true If there is a line starting within the range
+     *         false If the range is exhausted
+     */
+    boolean next() throws IOException {
+        if (bufferPosition + cursor >= end) {
+            return false;
+        }
+
+        int scan = cursor;
+        while (true) {
+            while (scan < limit && bytes[scan] != '\n') {
+                scan++;
+            }
+
+            if (scan < limit) {
+                setLine(cursor, scan);
+                cursor = scan + 1;
+                return true;
+            }
+
+            if (eof) {
+                if (cursor == limit) {
+                    return false;
+                }
+                setLine(cursor, limit);
+                cursor = limit;
+                return true;
+            }
+
+            // the line continues past the buffer
+            scan -= cursor;
+            compact();
+            fill();
+        }
+    }
+
+    /**
+     * Returns the buffer holding the current line; valid until the next call to next()
+     */
+    byte[] buffer() {
+        return bytes;
+    }
+
+    int lineStart() {
+        return lineStart;
+    }
+
+    int lineLength() {
+        return lineLength;
+    }
+
+    // ----------------------------- HELPERS -----------------------------
+
+    // discards the end of a line that started before the range
+    private void skipPastNewline() throws IOException {
+        while (true) {
+            while (cursor < limit && bytes[cursor] != '\n') {
+                cursor++;
+            }
+
+            if (cursor < limit) {
+                cursor++;
+                return;
+            }
+            if (eof) {
+                return;
+            }
+
+            bufferPosition += limit;
+            limit = 0;
+            cursor = 0;
+            fill();
+        }
+    }
+
+    private void setLine(int from, int to) {
+        if (to > from && bytes[to - 1] == '\r') {
+            to--;
+        }
+        lineStart = from;
+        lineLength = to - from;
+    }
+
+    // moves the unread bytes to the front, growing the buffer if a single line fills it
+    private void compact() {
+        if (cursor == 0) {
+            byte[] larger = new byte[bytes.length * 2];
+            System.arraycopy(bytes, 0, larger, 0, limit);
+            bytes = larger;
+            return;
+        }
+
+        System.arraycopy(bytes, cursor, bytes, 0, limit - cursor);
+        bufferPosition += cursor;
+        limit -= cursor;
+        cursor = 0;
+    }
+
+    private void fill() throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(bytes, limit, bytes.length - limit);
+
+        while (target.hasRemaining()) {
+            int read = channel.read(target, bufferPosition + target.position());
+            if (read < 0) {
+                eof = true;
+                break;
+            }
+        }
+
+        limit = target.position();
+    }
+}
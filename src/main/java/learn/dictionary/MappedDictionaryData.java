@@ -0,0 +1,22 @@
+package learn.dictionary;
+
+import learn.utils.BuildInfo;
+
+import java.lang.foreign.MemorySegment;
+
+public class MappedDictionaryData {
+    public BuildInfo header;
+    public MemorySegment dictionary;
+    // the payload as stored after the header, which the header's checksum covers; the dictionary itself unless compressed
+    public MemorySegment stored;
+
+    public MappedDictionaryData(BuildInfo header, MemorySegment dictionary) {
+        this(header, dictionary, dictionary);
+    }
+
+    public MappedDictionaryData(BuildInfo header, MemorySegment dictionary, MemorySegment stored) {
+        this.header = header;
+        this.dictionary = dictionary;
+        this.stored = stored;
+    }
+}
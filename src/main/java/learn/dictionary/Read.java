@@ -3,10 +3,24 @@ package learn.dictionary;
 import learn.utils.BuildInfo;
 
 import java.io.*;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Consumer;
 
 /**
  * The interface to build a bloom filter either:
@@ -14,6 +28,9 @@ import java.util.List;
  * from a binary file (compiled)
  */
 public class Read {
+    private static final int READ_BUFFER_BYTES = 1 << 20;
+    private static final long MIN_CHUNK_BYTES = 1 << 20;
+
     /**
      * Reads and returns lines from file provided by filename
      * @param filename Where to locate the raw source text file
@@ -23,6 +40,102 @@ public class Read {
         return Files.readAllLines(Paths.get(filename), StandardCharsets.US_ASCII);
     }
 
+    /**
+     * Receives the bytes of one element, valid only for the duration of the call
+     */
+    @FunctionalInterface
+    public interface ElementBytesConsumer {
+        void accept(byte[] bytes, int offset, int length);
+    }
+
+    /**
+     * Passes each line from file provided by filename to an action, reading and processing disjoint
+     * chunks of the file on several threads. Lines are decoded as US-ASCII, like dictFromRawSource().
+     * @param filename Where to locate the raw source text file
+     * @param nThreads The number of threads to split the file between
+     * @param action What to do with each line; called concurrently, so it must be thread-safe
+     * @throws IOException If problems occur reading the text file
+     */
+    public static void forEachRawElement(String filename, int nThreads, Consumer<String> action) throws IOException {
+        forEachRawElementBytes(filename, nThreads,
+                (bytes, offset, length) -> action.accept(new String(bytes, offset, length, StandardCharsets.US_ASCII)));
+    }
+
+    /**
+     * Passes the raw bytes of each line from file provided by filename to an action, without decoding them,
+     * reading and processing disjoint chunks of the file on several threads. Each thread streams its chunk
+     * through one reusable buffer, so memory use does not depend on the size of the file.
+     * @param filename Where to locate the raw source text file
+     * @param nThreads The number of threads to split the file between
+     * @param action What to do with each line; called concurrently, so it must be thread-safe
+     * @throws IOException If problems occur reading the text file
+     */
+    public static void forEachRawElementBytes(String filename, int nThreads, ElementBytesConsumer action)
+            throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ);
+             ExecutorService workers = Executors.newFixedThreadPool(Math.max(nThreads, 1))) {
+
+            // a few chunks per thread, so one slow chunk doesn't hold up the rest
+            long size = channel.size();
+            int nChunks = (int) Math.max(1, Math.min(4L * nThreads, size / MIN_CHUNK_BYTES));
+
+            List<Future<?>> chunks = new ArrayList<>();
+            for (int i = 0; i < nChunks; i++) {
+                long start = size * i / nChunks;
+                long end = size * (i + 1) / nChunks;
+
+                chunks.add(workers.submit(() -> {
+                    LineReader lines = new LineReader(channel, start, end, READ_BUFFER_BYTES);
+                    while (lines.next()) {
+                        action.accept(lines.buffer(), lines.lineStart(), lines.lineLength());
+                    }
+                    return null;
+                }));
+            }
+
+            for (Future<?> chunk: chunks) {
+                awaitChunk(chunk);
+            }
+        }
+    }
+
+    /**
+     * Receives one word of a text and where it starts, valid only for the duration of the call
+     */
+    @FunctionalInterface
+    public interface WordConsumer {
+        void accept(byte[] bytes, int offset, int length, long line, long column) throws IOException;
+    }
+
+    /**
+     * Passes the UTF-8 bytes of each word read from a channel to an action, in order, as they are read.
+     * A word is a run of letters. Streams the text through one reusable buffer, so memory use does not depend
+     * on the size of the text; a word longer than the buffer is passed in pieces.
+     * @param source The text to split into words, such as a file or standard input
+     * @param action What to do with each word, given the line and column it starts at, both from 1
+     * @throws IOException If problems occur reading source, or thrown by action
+     */
+    public static void forEachWord(ReadableByteChannel source, WordConsumer action) throws IOException {
+        WordReader words = new WordReader(source, READ_BUFFER_BYTES);
+        while (words.next()) {
+            action.accept(words.buffer(), words.wordStart(), words.wordLength(), words.wordLine(), words.wordColumn());
+        }
+    }
+
+    private static void awaitChunk(Future<?> chunk) throws IOException {
+        try {
+            chunk.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while reading raw source");
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IOException("Unexpected error while reading raw source", e.getCause());
+        }
+    }
+
     /**
      * Returns the bit array already compiled by a bloom filter.
      * @param filename The binary file to read from
@@ -33,10 +146,17 @@ public class Read {
         try (FileInputStream fis = new FileInputStream(filename);
              ByteArrayOutputStream baos = new ByteArrayOutputStream()) {
 
-            // reading the header
-            byte[] headerBytes = fis.readNBytes(BuildInfo.headerByteSize());
+            // reading the header, whose length depends on the version that wrote it
+            byte[] prefix = fis.readNBytes(BuildInfo.PREFIX_BYTE_SIZE);
+
+            if (prefix.length != BuildInfo.PREFIX_BYTE_SIZE) {
+                throw new IOException("Unexpected read error while scanning dictionary file for version information");
+            }
+
+            byte[] headerBytes = Arrays.copyOf(prefix, BuildInfo.headerByteSize(prefix));
+            int remaining = headerBytes.length - prefix.length;
 
-            if (headerBytes.length != BuildInfo.headerByteSize()) {
+            if (fis.readNBytes(headerBytes, prefix.length, remaining) != remaining) {
                 throw new IOException("Unexpected read error while scanning dictionary file for version information");
             }
 
@@ -50,24 +170,80 @@ public class Read {
                 baos.write(buffer, 0, bytesRead);
             }
 
-            return new DictionaryData(header, baos.toByteArray());
+            byte[] dictionary = baos.toByteArray();
+            if (isCompressed(header)) {
+                dictionary = ContainerCodec.decode(MemorySegment.ofArray(dictionary), Arena.ofAuto())
+                        .toArray(ValueLayout.JAVA_BYTE);
+            }
+
+            return new DictionaryData(header, dictionary);
         }
     }
 
     /**
-     * Counts the newlines in a file, where each newline is a unique element in the dictionary
+     * Maps a compiled dictionary into memory without reading it. Pages are loaded on first access and
+     * shared through the page cache with every other process mapping the same file.
+     * A compressed dictionary is instead decompressed into memory allocated by the arena.
+     * @param filename The binary file to map
+     * @param arena Controls how long the mapping lives; the dictionary is unusable once it closes
+     * @return The header and the mapped, read-only bit array, or the decompressed one
+     * @throws IOException If problems occur opening or mapping the binary file
+     */
+    public static MappedDictionaryData mapCompiledSource(String filename, Arena arena) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ)) {
+            MemorySegment file = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size(), arena);
+
+            if (file.byteSize() < BuildInfo.PREFIX_BYTE_SIZE) {
+                throw new IOException("Unexpected read error while scanning dictionary file for version information");
+            }
+
+            byte[] prefix = file.asSlice(0, BuildInfo.PREFIX_BYTE_SIZE).toArray(ValueLayout.JAVA_BYTE);
+            int headerSize = BuildInfo.headerByteSize(prefix);
+
+            if (file.byteSize() < headerSize) {
+                throw new IOException("Unexpected read error while scanning dictionary file for version information");
+            }
+
+            byte[] headerBytes = file.asSlice(0, headerSize).toArray(ValueLayout.JAVA_BYTE);
+            BuildInfo header = BuildInfo.readBuildInfo(headerBytes);
+            MemorySegment stored = file.asSlice(headerSize);
+            MemorySegment dictionary = isCompressed(header) ? ContainerCodec.decode(stored, arena) : stored;
+
+            return new MappedDictionaryData(header, dictionary, stored);
+        }
+    }
+
+    // a null header is left for the caller to reject
+    private static boolean isCompressed(BuildInfo header) {
+        return null != header && header.getEncoding() == BuildInfo.Encoding.CONTAINERS;
+    }
+
+    /**
+     * Counts the newlines in a file, where each newline is a unique element in the dictionary,
+     * plus the last line if it has no newline of its own.
+     * Scans the raw bytes, so the count doesn't depend on the platform charset.
      * @param filePath Where to locate the file
-     * @return The number of newlines in the file
+     * @return The number of lines in the file
      * @throws IOException If problems occur reading the file
      */
-    public static int countNewlines(String filePath) throws IOException {
-        int count = 0;
-        try (BufferedReader reader = new BufferedReader(new FileReader(filePath))) {
-            while (reader.readLine() != null) {
-                count++;
+    public static long countNewlines(String filePath) throws IOException {
+        long count = 0;
+        byte last = '\n';
+        try (FileChannel channel = FileChannel.open(Paths.get(filePath), StandardOpenOption.READ)) {
+            ByteBuffer buffer = ByteBuffer.allocateDirect(READ_BUFFER_BYTES);
+
+            while (channel.read(buffer) >= 0) {
+                buffer.flip();
+                while (buffer.hasRemaining()) {
+                    last = buffer.get();
+                    if (last == '\n') {
+                        count++;
+                    }
+                }
+                buffer.clear();
             }
         }
-        return count > 0 ? count - 1 : 0; // Subtract 1 because last line doesn't end with newline
+        return last == '\n' ? count : count + 1;
     }
 
     /**
@@ -0,0 +1,203 @@
+package learn.dictionary;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.ReadableByteChannel;
+
+/**
+ * Reads the words of UTF-8 text from a channel into one reusable buffer, with the line and column each starts at.
+ * A word is a run of letters; everything else separates words. Lines end at '\n', and columns count characters,
+ * both from 1. A word too long for the buffer is split, so memory use does not depend on the input.
+ */
+final class WordReader {
+    private static final int MAX_CHAR_BYTES = 4;
+
+    private final ReadableByteChannel channel;
+    private final byte[] bytes;
+    private int limit;
+    private int cursor;
+    private boolean eof;
+
+    // position of bytes[cursor]
+    private long line = 1;
+    private long column = 1;
+
+    private int wordStart;
+    private int wordLength;
+    private long wordLine;
+    private long wordColumn;
+
+    WordReader(ReadableByteChannel channel, int bufferBytes) {
+        this.channel = channel;
+        this.bytes = new byte[bufferBytes];
+    }
+
+    /**
+     * Advances to the next word
+     * @return true If there is another word
+     *         false If the channel is exhausted
+     */
+    boolean next() throws IOException {
+        // skip to the first letter
+        while (true) {
+            // ASCII separators, while a whole character is certainly buffered
+            for (int safe = limit - MAX_CHAR_BYTES; cursor < safe && isAsciiSeparator(bytes[cursor]); cursor++) {
+                advance(bytes[cursor]);
+            }
+
+            ensureAvailable(cursor);
+            if (cursor == limit) {
+                return false;
+            }
+            if (letterLength(cursor) > 0) {
+                break;
+            }
+            advance(bytes[cursor++]);
+        }
+
+        wordLine = line;
+        wordColumn = column;
+
+        int scan = cursor;
+        while (true) {
+            // ASCII letters, while a whole character is certainly buffered
+            int asciiStart = scan;
+            for (int safe = limit - MAX_CHAR_BYTES; scan < safe && isAsciiLetter(bytes[scan]); ) {
+                scan++;
+            }
+            column += scan - asciiStart;
+
+            if (limit - scan < MAX_CHAR_BYTES && !eof) {
+                if (cursor == 0 && limit == bytes.length) {
+                    break; // the word fills the buffer
+                }
+                scan -= ensureAvailable(scan);
+                continue;
+            }
+
+            int length = letterLength(scan);
+            if (length == 0) {
+                break;
+            }
+            scan += length;
+            column++;
+        }
+
+        wordStart = cursor;
+        wordLength = scan - cursor;
+        cursor = scan;
+        return true;
+    }
+
+    /**
+     * Returns the buffer holding the current word; valid until the next call to next()
+     */
+    byte[] buffer() {
+        return bytes;
+    }
+
+    int wordStart() {
+        return wordStart;
+    }
+
+    int wordLength() {
+        return wordLength;
+    }
+
+    long wordLine() {
+        return wordLine;
+    }
+
+    long wordColumn() {
+        return wordColumn;
+    }
+
+    // ----------------------------- HELPERS -----------------------------
+
+    private static boolean isAsciiLetter(byte b) {
+        return (b | 0x20) >= 'a' && (b | 0x20) <= 'z';
+    }
+
+    private static boolean isAsciiSeparator(byte b) {
+        return b >= 0 && !isAsciiLetter(b);
+    }
+
+    private void advance(byte b) {
+        if (b == '\n') {
+            line++;
+            column = 1;
+        } else if ((b & 0xC0) != 0x80) {
+            column++;
+        }
+    }
+
+    // the number of bytes of the letter at bytes[at], or 0 for any other character or a malformed sequence
+    private int letterLength(int at) {
+        if (at >= limit) {
+            return 0;
+        }
+
+        int lead = bytes[at] & 0xFF;
+        if (lead < 0x80) {
+            return isAsciiLetter((byte) lead) ? 1 : 0;
+        }
+
+        int length;
+        int codePoint;
+        if (lead < 0xC0) {
+            return 0;
+        } else if (lead < 0xE0) {
+            length = 2;
+            codePoint = lead & 0x1F;
+        } else if (lead < 0xF0) {
+            length = 3;
+            codePoint = lead & 0x0F;
+        } else if (lead < 0xF8) {
+            length = 4;
+            codePoint = lead & 0x07;
+        } else {
+            return 0;
+        }
+
+        if (at + length > limit) {
+            return 0;
+        }
+        for (int i = 1; i < length; i++) {
+            int next = bytes[at + i] & 0xFF;
+            if ((next & 0xC0) != 0x80) {
+                return 0;
+            }
+            codePoint = (codePoint << 6) | (next & 0x3F);
+        }
+
+        return Character.isLetter(codePoint) || Character.getType(codePoint) == Character.NON_SPACING_MARK
+                ? length : 0;
+    }
+
+    // reads until a whole character is buffered at bytes[at] or the channel ends, returning how far bytes moved
+    private int ensureAvailable(int at) throws IOException {
+        int moved = 0;
+
+        while (limit - (at - moved) < MAX_CHAR_BYTES && !eof && (limit < bytes.length || cursor > 0)) {
+            if (moved == 0 && cursor > 0) {
+                moved = cursor;
+                System.arraycopy(bytes, cursor, bytes, 0, limit - cursor);
+                limit -= cursor;
+                cursor = 0;
+            }
+            fill();
+        }
+
+        return moved;
+    }
+
+    private void fill() throws IOException {
+        ByteBuffer target = ByteBuffer.wrap(bytes, limit, bytes.length - limit);
+
+        if (channel.read(target) < 0) {
+            eof = true;
+        }
+
+        limit = target.position();
+    }
+}
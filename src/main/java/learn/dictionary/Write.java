@@ -1,6 +1,11 @@
 package learn.dictionary;
 
 import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 import java.nio.file.*;
 import java.util.Arrays;
 import java.util.Objects;
@@ -10,6 +15,8 @@ import java.util.stream.Collectors;
  * The interface to write the bloom filter bit array to memory.
  */
 public class Write {
+    private static final int WRITE_BUFFER_BYTES = 1 << 20;
+
     /**
      * Method to store bit array to a binary file, first prefaced with an optional program header.
      * @param filename The file to store the bit array in
@@ -24,6 +31,61 @@ public class Write {
         Files.write(path, data, StandardOpenOption.APPEND);
     }
 
+    /**
+     * Method to store a bit array of any size to a binary file, first prefaced with an optional program header.
+     * @param filename The file to store the bit array in
+     * @param data The bit array to store, which may be larger than a byte[] can hold
+     * @throws IOException If problems occur creating or writing to file
+     */
+    public static void dictToBinaryFile(String filename, byte[] header, MemorySegment data) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            if (header != null) {
+                writeFully(channel, ByteBuffer.wrap(header));
+            }
+
+            byte[] buffer = new byte[WRITE_BUFFER_BYTES];
+            for (long offset = 0; offset < data.byteSize(); offset += buffer.length) {
+                int length = (int) Math.min(buffer.length, data.byteSize() - offset);
+                MemorySegment.copy(data, ValueLayout.JAVA_BYTE, offset, buffer, 0, length);
+                writeFully(channel, ByteBuffer.wrap(buffer, 0, length));
+            }
+        }
+    }
+
+    /**
+     * Maps a compiled dictionary for writing in place. Only the pages written to are flushed back to the file,
+     * by MemorySegment.force() or once the arena closes.
+     * @param filename The binary file to map
+     * @param minByteSize Extends the file with zeros up to this size first, if it is shorter
+     * @param arena Controls how long the mapping lives
+     * @return The whole file, header included, mapped read-write
+     * @throws IOException If problems occur opening, extending or mapping the binary file
+     */
+    public static MemorySegment mapForUpdate(String filename, long minByteSize, Arena arena) throws IOException {
+        try (FileChannel channel = FileChannel.open(Paths.get(filename), StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            if (channel.size() < minByteSize) {
+                // payloads saved from a BitSet may be missing their trailing zero bytes
+                writeFully(channel, ByteBuffer.allocate(1), minByteSize - 1);
+            }
+
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, channel.size(), arena);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer source, long position) throws IOException {
+        while (source.hasRemaining()) {
+            position += channel.write(source, position);
+        }
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer source) throws IOException {
+        while (source.hasRemaining()) {
+            channel.write(source);
+        }
+    }
+
     /**
      * Saves an array of seed values to a CSV file.
      * @param filename Where to save the CSV file
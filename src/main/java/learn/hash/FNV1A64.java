@@ -1,6 +1,8 @@
 package learn.hash;
 
-import java.nio.ByteBuffer;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Objects;
 
 /**
  *   Fowler-Noll-Vo hash function
@@ -14,6 +16,31 @@ public class FNV1A64 {
     private static final long FNV_OFFSET_BASIS_64 = 0xcbf29ce484222325L;
     private static final long FNV_PRIME_64 = 0x100000001b3L;
 
+    /**
+     * FNV-1a as a QuickHash, hashing character sequences without an intermediate byte array
+     */
+    public static final QuickHash INSTANCE = new QuickHash() {
+        @Override
+        public long hash(byte[] data, int seed) {
+            return FNV1A64.hash(data, seed);
+        }
+
+        @Override
+        public long hash(byte[] data, int offset, int length, int seed) {
+            return FNV1A64.hash(data, offset, length, seed);
+        }
+
+        @Override
+        public long hash(CharSequence data, int seed) {
+            return FNV1A64.hash(data, seed);
+        }
+
+        @Override
+        public long hash(MemorySegment data, int seed) {
+            return FNV1A64.hash(data, seed);
+        }
+    };
+
     private FNV1A64() {};
 
     public static long hash(byte[] data, int seed) throws IllegalArgumentException {
@@ -21,29 +48,110 @@ public class FNV1A64 {
             throw new IllegalArgumentException("byte stream cannot be null");
         }
 
-        long firstPass = hashByteStream(data) ^ seed;
+        return hash(data, 0, data.length, seed);
+    }
+
+    /**
+     * Hashes a slice of a byte array. Produces the same value as hashing a copy of the slice.
+     */
+    public static long hash(byte[] data, int offset, int length, int seed) throws IllegalArgumentException {
+        if (null == data) {
+            throw new IllegalArgumentException("byte stream cannot be null");
+        }
+        Objects.checkFromIndexSize(offset, length, data.length);
+
+        long firstPass = hashByteStream(data, offset, length) ^ seed;
 
-        return hashByteStream(longToByteArray(firstPass));
+        return hashLong(firstPass);
     }
 
-    private static long hashByteStream(byte[] data) {
+    /**
+     * Hashes the bytes of a memory segment in place. Produces the same value as hashing a copy of them.
+     */
+    public static long hash(MemorySegment data, int seed) throws IllegalArgumentException {
+        if (null == data) {
+            throw new IllegalArgumentException("memory segment cannot be null");
+        }
+
         long hash = FNV_OFFSET_BASIS_64;
 
-        for (byte b: data) {
+        for (long i = 0, length = data.byteSize(); i < length; i++) {
+            hash = step(hash, data.get(ValueLayout.JAVA_BYTE, i) & 0xFF);
+        }
+
+        return hashLong(hash ^ seed);
+    }
+
+    /**
+     * Hashes the UTF-8 encoding of a character sequence. Produces the same value as
+     * hash(data.toString().getBytes(StandardCharsets.UTF_8), seed) without allocating.
+     */
+    public static long hash(CharSequence data, int seed) throws IllegalArgumentException {
+        if (null == data) {
+            throw new IllegalArgumentException("character sequence cannot be null");
+        }
+
+        long firstPass = hashUtf8(data) ^ seed;
+
+        return hashLong(firstPass);
+    }
+
+    private static long hashByteStream(byte[] data, int offset, int length) {
+        long hash = FNV_OFFSET_BASIS_64;
+
+        for (int i = offset; i < offset + length; i++) {
             // conversion necessary since java has no unsigned modifiers
-            hash = hash ^ (b & 0xFF);
+            hash = hash ^ (data[i] & 0xFF);
             hash = hash * FNV_PRIME_64;
         }
 
         return hash;
     }
 
-    // Helper function: long to byte array converter
-    private static byte[] longToByteArray(long value) {
-        byte[] result = new byte[8];
+    // Encodes to UTF-8 on the fly, matching String.getBytes() for malformed surrogates ('?')
+    private static long hashUtf8(CharSequence data) {
+        long hash = FNV_OFFSET_BASIS_64;
+        int length = data.length();
+
+        for (int i = 0; i < length; i++) {
+            char c = data.charAt(i);
+
+            if (c < 0x80) {
+                hash = step(hash, c);
+            } else if (c < 0x800) {
+                hash = step(hash, 0xC0 | (c >> 6));
+                hash = step(hash, 0x80 | (c & 0x3F));
+            } else if (!Character.isSurrogate(c)) {
+                hash = step(hash, 0xE0 | (c >> 12));
+                hash = step(hash, 0x80 | ((c >> 6) & 0x3F));
+                hash = step(hash, 0x80 | (c & 0x3F));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(data.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, data.charAt(++i));
+                hash = step(hash, 0xF0 | (codePoint >> 18));
+                hash = step(hash, 0x80 | ((codePoint >> 12) & 0x3F));
+                hash = step(hash, 0x80 | ((codePoint >> 6) & 0x3F));
+                hash = step(hash, 0x80 | (codePoint & 0x3F));
+            } else {
+                hash = step(hash, '?');
+            }
+        }
+
+        return hash;
+    }
+
+    // Hashes the 8 big-endian bytes of a long
+    private static long hashLong(long value) {
+        long hash = FNV_OFFSET_BASIS_64;
+
         for (int i = 0; i < 8; i++) {
-            result[i] = (byte) ((value >> (56 - (i * 8))) & 0xFF);
+            hash = step(hash, (int) ((value >> (56 - (i * 8))) & 0xFF));
         }
-        return result;
+
+        return hash;
+    }
+
+    private static long step(long hash, int unsignedByte) {
+        return (hash ^ unsignedByte) * FNV_PRIME_64;
     }
-}
\ No newline at end of file
+}
@@ -0,0 +1,38 @@
+package learn.hash;
+
+/**
+ * The hashing algorithms a compiled filter can be built with, tagged by the ID saved in its header
+ */
+public enum HashAlgorithm {
+    FNV1A64((short) 0, learn.hash.FNV1A64.INSTANCE),
+    MURMUR3((short) 1, Murmur3.INSTANCE),
+    XXHASH64((short) 2, XXHash64.INSTANCE);
+
+    private final short id;
+    private final QuickHash hasher;
+
+    HashAlgorithm(short id, QuickHash hasher) {
+        this.id = id;
+        this.hasher = hasher;
+    }
+
+    public short getId() {
+        return id;
+    }
+
+    public QuickHash getHasher() {
+        return hasher;
+    }
+
+    /**
+     * Returns the algorithm saved under some ID, or null if the ID is unknown
+     */
+    public static HashAlgorithm fromId(short id) {
+        for (HashAlgorithm algorithm: values()) {
+            if (algorithm.id == id) {
+                return algorithm;
+            }
+        }
+        return null;
+    }
+}
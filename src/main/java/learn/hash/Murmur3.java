@@ -0,0 +1,222 @@
+package learn.hash;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Objects;
+
+/**
+ *   MurmurHash3, x64 128-bit variant
+ *
+ *   Reads 16 bytes per round as two little-endian longs,
+ *   and returns the first 64 bits of the 128-bit hash.
+ */
+public class Murmur3 {
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfLong SEGMENT_LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * MurmurHash3 as a QuickHash, hashing every kind of key in place
+     */
+    public static final QuickHash INSTANCE = new QuickHash() {
+        @Override
+        public long hash(byte[] data, int seed) {
+            return Murmur3.hash(data, seed);
+        }
+
+        @Override
+        public long hash(byte[] data, int offset, int length, int seed) {
+            return Murmur3.hash(data, offset, length, seed);
+        }
+
+        @Override
+        public long hash(CharSequence data, int seed) {
+            return Murmur3.hash(data, seed);
+        }
+
+        @Override
+        public long hash(MemorySegment data, int seed) {
+            return Murmur3.hash(data, seed);
+        }
+    };
+
+    private Murmur3() {};
+
+    public static long hash(byte[] data, int seed) throws IllegalArgumentException {
+        if (null == data) {
+            throw new IllegalArgumentException("byte stream cannot be null");
+        }
+
+        return hash(data, 0, data.length, seed);
+    }
+
+    /**
+     * Hashes a slice of a byte array. Produces the same value as hashing a copy of the slice.
+     */
+    public static long hash(byte[] data, int offset, int length, int seed) throws IllegalArgumentException {
+        if (null == data) {
+            throw new IllegalArgumentException("byte stream cannot be null");
+        }
+        Objects.checkFromIndexSize(offset, length, data.length);
+
+        // the seed is an unsigned 32-bit value in the reference implementation
+        long h1 = seed & 0xFFFFFFFFL;
+        long h2 = h1;
+
+        int i = offset;
+        for (int end = offset + (length & ~15); i < end; i += 16) {
+            h1 ^= mixK1((long) LONGS.get(data, i));
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2((long) LONGS.get(data, i + 8));
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        // the last 0-15 bytes, zero-padded
+        int tail = length & 15;
+        if (tail > 8) {
+            h2 ^= mixK2(readTail(data, i + 8, tail - 8));
+        }
+        if (tail > 0) {
+            h1 ^= mixK1(readTail(data, i, Math.min(tail, 8)));
+        }
+
+        return finish(h1, h2, length);
+    }
+
+    /**
+     * Hashes the bytes of a memory segment in place. Produces the same value as hashing a copy of them.
+     */
+    public static long hash(MemorySegment data, int seed) throws IllegalArgumentException {
+        if (null == data) {
+            throw new IllegalArgumentException("memory segment cannot be null");
+        }
+
+        long length = data.byteSize();
+        long h1 = seed & 0xFFFFFFFFL;
+        long h2 = h1;
+
+        long i = 0;
+        for (long end = length & ~15L; i < end; i += 16) {
+            h1 ^= mixK1(data.get(SEGMENT_LONG, i));
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(data.get(SEGMENT_LONG, i + 8));
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        int tail = (int) (length & 15);
+        if (tail > 8) {
+            h2 ^= mixK2(readTail(data, i + 8, tail - 8));
+        }
+        if (tail > 0) {
+            h1 ^= mixK1(readTail(data, i, Math.min(tail, 8)));
+        }
+
+        return finish(h1, h2, length);
+    }
+
+    /**
+     * Hashes the UTF-8 encoding of a character sequence. Produces the same value as
+     * hash(data.toString().getBytes(StandardCharsets.UTF_8), seed) without encoding to an array.
+     */
+    public static long hash(CharSequence data, int seed) throws IllegalArgumentException {
+        if (null == data) {
+            throw new IllegalArgumentException("character sequence cannot be null");
+        }
+
+        int length = Utf8Cursor.encodedLength(data);
+        Utf8Cursor cursor = new Utf8Cursor(data);
+        long h1 = seed & 0xFFFFFFFFL;
+        long h2 = h1;
+
+        for (int nBlocks = length >>> 4; nBlocks > 0; nBlocks--) {
+            h1 ^= mixK1(cursor.nextLong());
+            h1 = Long.rotateLeft(h1, 27) + h2;
+            h1 = h1 * 5 + 0x52dce729;
+
+            h2 ^= mixK2(cursor.nextLong());
+            h2 = Long.rotateLeft(h2, 31) + h1;
+            h2 = h2 * 5 + 0x38495ab5;
+        }
+
+        // the tail's first 8 bytes come before the rest in the stream
+        int tail = length & 15;
+        long k1 = cursor.nextLong(Math.min(tail, 8));
+        if (tail > 8) {
+            h2 ^= mixK2(cursor.nextLong(tail - 8));
+        }
+        if (tail > 0) {
+            h1 ^= mixK1(k1);
+        }
+
+        return finish(h1, h2, length);
+    }
+
+    private static long mixK1(long k1) {
+        return Long.rotateLeft(k1 * C1, 31) * C2;
+    }
+
+    private static long mixK2(long k2) {
+        return Long.rotateLeft(k2 * C2, 33) * C1;
+    }
+
+    private static long finish(long h1, long h2, long length) {
+        h1 ^= length;
+        h2 ^= length;
+
+        h1 += h2;
+        h2 += h1;
+
+        h1 = fmix64(h1);
+        h2 = fmix64(h2);
+
+        return h1 + h2;
+    }
+
+    // Reads up to 8 bytes as a little-endian long
+    private static long readTail(byte[] data, int offset, int length) {
+        if (length == Long.BYTES) {
+            return (long) LONGS.get(data, offset);
+        }
+
+        long value = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            value = (value << 8) | (data[offset + i] & 0xFF);
+        }
+
+        return value;
+    }
+
+    private static long readTail(MemorySegment data, long offset, int length) {
+        if (length == Long.BYTES) {
+            return data.get(SEGMENT_LONG, offset);
+        }
+
+        long value = 0;
+        for (int i = length - 1; i >= 0; i--) {
+            value = (value << 8) | (data.get(ValueLayout.JAVA_BYTE, offset + i) & 0xFF);
+        }
+
+        return value;
+    }
+
+    private static long fmix64(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+
+        return k;
+    }
+}
@@ -1,5 +1,12 @@
 package learn.hash;
 
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.Objects;
+
 /**
 * The interface for hashing algorithms to implement
 * for the bloom filter.
@@ -12,4 +19,59 @@ public interface QuickHash {
      * @return The hashed value for the byte stream
      */
     long hash(byte[] data, int seed);
+
+    /**
+     * Produce a hash value for a slice of a byte array, the same as hashing a copy of the slice.
+     * Implementations should override this to avoid the copy.
+     * @param data The array holding the bytes to be hashed
+     * @param offset The index of the first byte to hash
+     * @param length The number of bytes to hash
+     * @param seed The seed for the underlying hash value
+     * @return The hashed value for the slice
+     */
+    default long hash(byte[] data, int offset, int length, int seed) {
+        return hash(Arrays.copyOfRange(data, offset, offset + length), seed);
+    }
+
+    /**
+     * Produce a hash value for the UTF-8 encoding of a character sequence.
+     * Implementations should override this to avoid encoding to a temporary byte array.
+     * @param data The characters to be hashed
+     * @param seed The seed for the underlying hash value
+     * @return The hashed value for the character sequence
+     */
+    default long hash(CharSequence data, int seed) {
+        return hash(data.toString().getBytes(StandardCharsets.UTF_8), seed);
+    }
+
+    /**
+     * Produce a hash value for the bytes of a memory segment, on or off the heap, the same as hashing a copy of them.
+     * Implementations should override this to avoid the copy.
+     * @param data The bytes to be hashed
+     * @param seed The seed for the underlying hash value
+     * @return The hashed value for the segment
+     */
+    default long hash(MemorySegment data, int seed) {
+        return hash(data.toArray(ValueLayout.JAVA_BYTE), seed);
+    }
+
+    /**
+     * Produce a hash value for a slice of a buffer, the same as hashing a copy of the slice.
+     * Ignores and keeps the buffer's position; heap buffers are hashed through their array
+     * and the rest through hash(MemorySegment, int), so neither is copied.
+     * @param data The buffer holding the bytes to be hashed
+     * @param offset The absolute index of the first byte to hash
+     * @param length The number of bytes to hash, which must end before the buffer's limit
+     * @param seed The seed for the underlying hash value
+     * @return The hashed value for the slice
+     */
+    default long hash(ByteBuffer data, int offset, int length, int seed) {
+        Objects.checkFromIndexSize(offset, length, data.limit());
+
+        if (data.hasArray()) {
+            return hash(data.array(), data.arrayOffset() + offset, length, seed);
+        }
+
+        return hash(MemorySegment.ofBuffer(data.slice(offset, length)), seed);
+    }
 }
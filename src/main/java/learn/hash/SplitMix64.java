@@ -0,0 +1,23 @@
+package learn.hash;
+
+/**
+ *   SplitMix64 finalizer
+ *
+ *   Mixes a 64-bit key in a few multiplies and shifts,
+ *   for numeric keys that need no hashing as bytes.
+ */
+public class SplitMix64 {
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private SplitMix64() {};
+
+    /**
+     * Hashes a numeric key. Distinct keys under the same seed never collide, since the mix is a bijection.
+     */
+    public static long hash(long key, int seed) {
+        long z = key + (seed + 1L) * GOLDEN_GAMMA;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
+}
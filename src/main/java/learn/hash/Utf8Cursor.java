@@ -0,0 +1,121 @@
+package learn.hash;
+
+/**
+ * Reads the UTF-8 encoding of a character sequence a few bytes at a time, without encoding it to an array.
+ * Malformed surrogates encode as '?', matching String.getBytes(StandardCharsets.UTF_8).
+ */
+final class Utf8Cursor {
+    private final CharSequence data;
+    private int index;
+    // the encoded bytes of the current character not read yet, lowest first
+    private int pending;
+    private int nPending;
+
+    Utf8Cursor(CharSequence data) {
+        this.data = data;
+    }
+
+    /**
+     * Returns the number of bytes in the UTF-8 encoding of a character sequence
+     */
+    static int encodedLength(CharSequence data) {
+        int length = data.length();
+        long nBytes = length;
+
+        for (int i = 0; i < length; i++) {
+            char c = data.charAt(i);
+
+            if (c < 0x80) {
+                continue;
+            }
+            if (c < 0x800) {
+                nBytes += 1;
+            } else if (!Character.isSurrogate(c)) {
+                nBytes += 2;
+            } else if (Character.isHighSurrogate(c) && i + 1 < length
+                    && Character.isLowSurrogate(data.charAt(i + 1))) {
+                // four bytes for the pair
+                nBytes += 2;
+                i++;
+            }
+        }
+
+        if (nBytes > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("character sequence too long to encode");
+        }
+        return (int) nBytes;
+    }
+
+    /**
+     * Reads the next 8 bytes as a little-endian long
+     */
+    long nextLong() {
+        // ASCII encodes one byte per character, so whole words can be packed straight from the characters
+        if (nPending == 0 && index + Long.BYTES <= data.length()) {
+            long value = 0;
+            for (int i = 0; i < Long.BYTES; i++) {
+                char c = data.charAt(index + i);
+                if (c >= 0x80) {
+                    return nextLong(Long.BYTES);
+                }
+                value |= (long) c << (i * 8);
+            }
+
+            index += Long.BYTES;
+            return value;
+        }
+
+        return nextLong(Long.BYTES);
+    }
+
+    /**
+     * Reads the next nBytes (at most 8) as a little-endian long
+     */
+    long nextLong(int nBytes) {
+        long value = 0;
+        for (int i = 0; i < nBytes; i++) {
+            value |= (long) nextByte() << (i * 8);
+        }
+
+        return value;
+    }
+
+    /**
+     * Reads the next byte, unsigned
+     */
+    int nextByte() {
+        if (nPending == 0) {
+            encodeNext();
+        }
+
+        int next = pending & 0xFF;
+        pending >>>= 8;
+        nPending--;
+
+        return next;
+    }
+
+    private void encodeNext() {
+        char c = data.charAt(index++);
+
+        if (c < 0x80) {
+            pending = c;
+            nPending = 1;
+        } else if (c < 0x800) {
+            pending = (0xC0 | c >> 6) | (0x80 | c & 0x3F) << 8;
+            nPending = 2;
+        } else if (!Character.isSurrogate(c)) {
+            pending = (0xE0 | c >> 12) | (0x80 | (c >> 6) & 0x3F) << 8 | (0x80 | c & 0x3F) << 16;
+            nPending = 3;
+        } else if (Character.isHighSurrogate(c) && index < data.length()
+                && Character.isLowSurrogate(data.charAt(index))) {
+            int codePoint = Character.toCodePoint(c, data.charAt(index++));
+            pending = (0xF0 | codePoint >> 18) | (0x80 | (codePoint >> 12) & 0x3F) << 8
+                    | (0x80 | (codePoint >> 6) & 0x3F) << 16 | (0x80 | codePoint & 0x3F) << 24;
+            nPending = 4;
+        } else {
+            pending = '?';
+            nPending = 1;
+        }
+    }
+}
@@ -0,0 +1,258 @@
+package learn.hash;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteOrder;
+import java.util.Objects;
+
+/**
+ *   xxHash, 64-bit variant (XXH64)
+ *
+ *   Runs four independent accumulators over 32 bytes per round,
+ *   read as little-endian longs.
+ */
+public class XXHash64 {
+    private static final long PRIME64_1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME64_2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME64_3 = 0x165667B19E3779F9L;
+    private static final long PRIME64_4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME64_5 = 0x27D4EB2F165667C5L;
+
+    private static final VarHandle LONGS = MethodHandles.byteArrayViewVarHandle(long[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final VarHandle INTS = MethodHandles.byteArrayViewVarHandle(int[].class, ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfLong SEGMENT_LONG = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfInt SEGMENT_INT = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    /**
+     * XXH64 as a QuickHash, hashing every kind of key in place
+     */
+    public static final QuickHash INSTANCE = new QuickHash() {
+        @Override
+        public long hash(byte[] data, int seed) {
+            return XXHash64.hash(data, seed);
+        }
+
+        @Override
+        public long hash(byte[] data, int offset, int length, int seed) {
+            return XXHash64.hash(data, offset, length, seed);
+        }
+
+        @Override
+        public long hash(CharSequence data, int seed) {
+            return XXHash64.hash(data, seed);
+        }
+
+        @Override
+        public long hash(MemorySegment data, int seed) {
+            return XXHash64.hash(data, seed);
+        }
+    };
+
+    private XXHash64() {};
+
+    public static long hash(byte[] data, int seed) throws IllegalArgumentException {
+        if (null == data) {
+            throw new IllegalArgumentException("byte stream cannot be null");
+        }
+
+        return hash(data, 0, data.length, seed);
+    }
+
+    /**
+     * Hashes a slice of a byte array. Produces the same value as hashing a copy of the slice.
+     */
+    public static long hash(byte[] data, int offset, int length, int seed) throws IllegalArgumentException {
+        if (null == data) {
+            throw new IllegalArgumentException("byte stream cannot be null");
+        }
+        Objects.checkFromIndexSize(offset, length, data.length);
+
+        // seeds are taken as unsigned, like the 32-bit seeds of the other hashes
+        long unsignedSeed = seed & 0xFFFFFFFFL;
+        int i = offset;
+        int end = offset + length;
+        long hash;
+
+        if (length >= 32) {
+            long v1 = unsignedSeed + PRIME64_1 + PRIME64_2;
+            long v2 = unsignedSeed + PRIME64_2;
+            long v3 = unsignedSeed;
+            long v4 = unsignedSeed - PRIME64_1;
+
+            for (int limit = end - 32; i <= limit; i += 32) {
+                v1 = round(v1, (long) LONGS.get(data, i));
+                v2 = round(v2, (long) LONGS.get(data, i + 8));
+                v3 = round(v3, (long) LONGS.get(data, i + 16));
+                v4 = round(v4, (long) LONGS.get(data, i + 24));
+            }
+
+            hash = converge(v1, v2, v3, v4);
+        } else {
+            hash = unsignedSeed + PRIME64_5;
+        }
+
+        hash += length;
+
+        for (; i + 8 <= end; i += 8) {
+            hash = mixLong(hash, (long) LONGS.get(data, i));
+        }
+
+        if (i + 4 <= end) {
+            hash = mixInt(hash, (int) INTS.get(data, i));
+            i += 4;
+        }
+
+        for (; i < end; i++) {
+            hash = mixByte(hash, data[i]);
+        }
+
+        return avalanche(hash);
+    }
+
+    /**
+     * Hashes the bytes of a memory segment in place. Produces the same value as hashing a copy of them.
+     */
+    public static long hash(MemorySegment data, int seed) throws IllegalArgumentException {
+        if (null == data) {
+            throw new IllegalArgumentException("memory segment cannot be null");
+        }
+
+        long unsignedSeed = seed & 0xFFFFFFFFL;
+        long i = 0;
+        long end = data.byteSize();
+        long hash;
+
+        if (end >= 32) {
+            long v1 = unsignedSeed + PRIME64_1 + PRIME64_2;
+            long v2 = unsignedSeed + PRIME64_2;
+            long v3 = unsignedSeed;
+            long v4 = unsignedSeed - PRIME64_1;
+
+            for (long limit = end - 32; i <= limit; i += 32) {
+                v1 = round(v1, data.get(SEGMENT_LONG, i));
+                v2 = round(v2, data.get(SEGMENT_LONG, i + 8));
+                v3 = round(v3, data.get(SEGMENT_LONG, i + 16));
+                v4 = round(v4, data.get(SEGMENT_LONG, i + 24));
+            }
+
+            hash = converge(v1, v2, v3, v4);
+        } else {
+            hash = unsignedSeed + PRIME64_5;
+        }
+
+        hash += end;
+
+        for (; i + 8 <= end; i += 8) {
+            hash = mixLong(hash, data.get(SEGMENT_LONG, i));
+        }
+
+        if (i + 4 <= end) {
+            hash = mixInt(hash, data.get(SEGMENT_INT, i));
+            i += 4;
+        }
+
+        for (; i < end; i++) {
+            hash = mixByte(hash, data.get(ValueLayout.JAVA_BYTE, i));
+        }
+
+        return avalanche(hash);
+    }
+
+    /**
+     * Hashes the UTF-8 encoding of a character sequence. Produces the same value as
+     * hash(data.toString().getBytes(StandardCharsets.UTF_8), seed) without encoding to an array.
+     */
+    public static long hash(CharSequence data, int seed) throws IllegalArgumentException {
+        if (null == data) {
+            throw new IllegalArgumentException("character sequence cannot be null");
+        }
+
+        long unsignedSeed = seed & 0xFFFFFFFFL;
+        int length = Utf8Cursor.encodedLength(data);
+        int remaining = length;
+        Utf8Cursor cursor = new Utf8Cursor(data);
+        long hash;
+
+        if (remaining >= 32) {
+            long v1 = unsignedSeed + PRIME64_1 + PRIME64_2;
+            long v2 = unsignedSeed + PRIME64_2;
+            long v3 = unsignedSeed;
+            long v4 = unsignedSeed - PRIME64_1;
+
+            for (; remaining >= 32; remaining -= 32) {
+                v1 = round(v1, cursor.nextLong());
+                v2 = round(v2, cursor.nextLong());
+                v3 = round(v3, cursor.nextLong());
+                v4 = round(v4, cursor.nextLong());
+            }
+
+            hash = converge(v1, v2, v3, v4);
+        } else {
+            hash = unsignedSeed + PRIME64_5;
+        }
+
+        hash += length;
+
+        for (; remaining >= 8; remaining -= 8) {
+            hash = mixLong(hash, cursor.nextLong());
+        }
+
+        if (remaining >= 4) {
+            hash = mixInt(hash, (int) cursor.nextLong(4));
+            remaining -= 4;
+        }
+
+        for (; remaining > 0; remaining--) {
+            hash = mixByte(hash, (byte) cursor.nextByte());
+        }
+
+        return avalanche(hash);
+    }
+
+    private static long round(long accumulator, long input) {
+        accumulator += input * PRIME64_2;
+        accumulator = Long.rotateLeft(accumulator, 31);
+        return accumulator * PRIME64_1;
+    }
+
+    private static long mergeRound(long accumulator, long value) {
+        accumulator ^= round(0, value);
+        return accumulator * PRIME64_1 + PRIME64_4;
+    }
+
+    private static long converge(long v1, long v2, long v3, long v4) {
+        long hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+                + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+        hash = mergeRound(hash, v1);
+        hash = mergeRound(hash, v2);
+        hash = mergeRound(hash, v3);
+        return mergeRound(hash, v4);
+    }
+
+    private static long mixLong(long hash, long input) {
+        hash ^= round(0, input);
+        return Long.rotateLeft(hash, 27) * PRIME64_1 + PRIME64_4;
+    }
+
+    private static long mixInt(long hash, int input) {
+        hash ^= (input & 0xFFFFFFFFL) * PRIME64_1;
+        return Long.rotateLeft(hash, 23) * PRIME64_2 + PRIME64_3;
+    }
+
+    private static long mixByte(long hash, byte input) {
+        hash ^= (input & 0xFF) * PRIME64_5;
+        return Long.rotateLeft(hash, 11) * PRIME64_1;
+    }
+
+    private static long avalanche(long hash) {
+        hash ^= hash >>> 33;
+        hash *= PRIME64_2;
+        hash ^= hash >>> 29;
+        hash *= PRIME64_3;
+        hash ^= hash >>> 32;
+
+        return hash;
+    }
+}
@@ -0,0 +1,140 @@
+package learn.metrics;
+
+import learn.utils.BloomFilter;
+import learn.utils.MembershipFilter;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BooleanSupplier;
+
+/**
+ * Counts the queries answered by a filter, and samples their latency, for an InstrumentedFilter to record into.
+ * Counters are LongAdders, so threads answering queries at once do not contend on them, and only one query in
+ * SAMPLE_EVERY is timed. Saturation is read from the filter itself whenever it is asked for.
+ */
+public class FilterMetrics implements FilterMetricsMXBean {
+    public static final int SAMPLE_EVERY = 64;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private final BloomFilter standard; // null unless the filter is a standard one
+    private final BooleanSupplier sampler; // decides which queries are timed
+
+    /**
+     * Creates the metrics of a filter, with no queries counted yet
+     * @param filter The filter whose saturation to report
+     */
+    public FilterMetrics(MembershipFilter filter) {
+        this(filter, () -> (ThreadLocalRandom.current().nextInt() & (SAMPLE_EVERY - 1)) == 0);
+    }
+
+    // tests choose which queries are timed, rather than one in SAMPLE_EVERY at random
+    FilterMetrics(MembershipFilter filter, BooleanSupplier sampler) {
+        this.standard = filter instanceof BloomFilter bloomFilter ? bloomFilter : null;
+        this.sampler = sampler;
+    }
+
+    /**
+     * Publishes the metrics as a platform MXBean named learn:type=MembershipFilter,name=[name]
+     * @param name Tells filters apart, such as the file the filter was loaded from
+     * @return The name the metrics were published under
+     * @throws JMException If the name is taken or the metrics cannot be published
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName("learn:type=MembershipFilter,name=" + ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    // ----------------------------- RECORDING -----------------------------
+
+    boolean shouldSample() {
+        return sampler.getAsBoolean();
+    }
+
+    void recordQuery(boolean found) {
+        (found ? hits : misses).increment();
+    }
+
+    void recordQueries(long nQueries, long nHits) {
+        hits.add(nHits);
+        misses.add(nQueries - nHits);
+    }
+
+    void recordLatency(long nanos) {
+        latency.record(nanos);
+    }
+
+    // ----------------------------- ATTRIBUTES -----------------------------
+
+    @Override
+    public long getQueries() {
+        return hits.sum() + misses.sum();
+    }
+
+    @Override
+    public long getHits() {
+        return hits.sum();
+    }
+
+    @Override
+    public long getMisses() {
+        return misses.sum();
+    }
+
+    @Override
+    public double getHitRatio() {
+        long hits = getHits();
+        long queries = hits + getMisses();
+        return queries == 0 ? Double.NaN : (double) hits / queries;
+    }
+
+    @Override
+    public long getLatencySamples() {
+        return latency.count();
+    }
+
+    @Override
+    public long getLatencyP50Nanos() {
+        return latency.percentileNanos(50);
+    }
+
+    @Override
+    public long getLatencyP99Nanos() {
+        return latency.percentileNanos(99);
+    }
+
+    @Override
+    public long getBitCount() {
+        return null == standard ? -1 : standard.getBitCount();
+    }
+
+    @Override
+    public long getBitPopulation() {
+        return null == standard ? -1 : standard.getBitPopulation();
+    }
+
+    @Override
+    public double getFillRatio() {
+        return null == standard ? Double.NaN : standard.getFillRatio();
+    }
+
+    @Override
+    public double getEstimatedElementCount() {
+        return null == standard ? Double.NaN : standard.estimateElementCount();
+    }
+
+    @Override
+    public double getEstimatedFalsePositiveRate() {
+        return null == standard ? Double.NaN : standard.estimateFalsePositiveRate();
+    }
+
+    @Override
+    public double getDesiredFalsePositiveRate() {
+        return null == standard ? Double.NaN : standard.getDFP();
+    }
+}
@@ -0,0 +1,33 @@
+package learn.metrics;
+
+/**
+ * The management interface of a filter answering queries, as published over JMX.
+ * Saturation attributes are -1, or NaN, unless the filter is a standard one.
+ */
+public interface FilterMetricsMXBean {
+    long getQueries();
+
+    long getHits();
+
+    long getMisses();
+
+    double getHitRatio();
+
+    long getLatencySamples();
+
+    long getLatencyP50Nanos();
+
+    long getLatencyP99Nanos();
+
+    long getBitCount();
+
+    long getBitPopulation();
+
+    double getFillRatio();
+
+    double getEstimatedElementCount();
+
+    double getEstimatedFalsePositiveRate();
+
+    double getDesiredFalsePositiveRate();
+}
@@ -0,0 +1,78 @@
+package learn.metrics;
+
+import learn.utils.MembershipFilter;
+
+import java.util.BitSet;
+
+/**
+ * Answers queries from another filter, counting hits and misses and timing a sample of them into FilterMetrics.
+ * Wrapping leaves the filter's own hot path untouched, so filters that are not watched pay nothing.
+ */
+public final class InstrumentedFilter implements MembershipFilter {
+    private final MembershipFilter filter;
+    private final FilterMetrics metrics;
+
+    public InstrumentedFilter(MembershipFilter filter, FilterMetrics metrics) {
+        if (null == filter || null == metrics) {
+            throw new IllegalArgumentException("filter and metrics cannot be null");
+        }
+        this.filter = filter;
+        this.metrics = metrics;
+    }
+
+    @Override
+    public boolean contains(String element) {
+        if (!metrics.shouldSample()) {
+            boolean found = filter.contains(element);
+            metrics.recordQuery(found);
+            return found;
+        }
+
+        long start = System.nanoTime();
+        boolean found = filter.contains(element);
+        metrics.recordLatency(System.nanoTime() - start);
+        metrics.recordQuery(found);
+        return found;
+    }
+
+    @Override
+    public boolean contains(byte[] element, int offset, int length) {
+        if (!metrics.shouldSample()) {
+            boolean found = filter.contains(element, offset, length);
+            metrics.recordQuery(found);
+            return found;
+        }
+
+        long start = System.nanoTime();
+        boolean found = filter.contains(element, offset, length);
+        metrics.recordLatency(System.nanoTime() - start);
+        metrics.recordQuery(found);
+        return found;
+    }
+
+    /**
+     * Queries every element of a batch, counting the batch at once and timing a sample of batches,
+     * recorded as the latency per element
+     */
+    @Override
+    public void containsAll(String[] elements, BitSet resultOut) {
+        if (elements.length == 0) {
+            return;
+        }
+
+        boolean sampled = metrics.shouldSample();
+        long start = sampled ? System.nanoTime() : 0;
+
+        filter.containsAll(elements, resultOut);
+
+        if (sampled) {
+            metrics.recordLatency((System.nanoTime() - start) / elements.length);
+        }
+
+        long nHits = 0;
+        for (int i = resultOut.nextSetBit(0); i >= 0 && i < elements.length; i = resultOut.nextSetBit(i + 1)) {
+            nHits++;
+        }
+        metrics.recordQueries(elements.length, nHits);
+    }
+}
@@ -0,0 +1,56 @@
+package learn.metrics;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts latencies in power-of-two buckets of nanoseconds, so recording one is a single uncontended add
+ * and percentiles are answered to within a factor of two.
+ */
+final class LatencyHistogram {
+    // bucket b holds latencies below 2^b nanoseconds, and at least 2^(b - 1)
+    private final LongAdder[] buckets = new LongAdder[Long.SIZE];
+
+    LatencyHistogram() {
+        for (int b = 0; b < buckets.length; b++) {
+            buckets[b] = new LongAdder();
+        }
+    }
+
+    void record(long nanos) {
+        buckets[Long.SIZE - Long.numberOfLeadingZeros(Math.max(nanos, 0))].increment();
+    }
+
+    long count() {
+        long count = 0;
+        for (LongAdder bucket: buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    /**
+     * Returns the upper bound of the bucket holding a percentile, or 0 if nothing was recorded
+     * @param percentile Between 0 and 100
+     */
+    long percentileNanos(double percentile) {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int b = 0; b < buckets.length; b++) {
+            counts[b] = buckets[b].sum();
+            total += counts[b];
+        }
+        if (total == 0) {
+            return 0;
+        }
+
+        long rank = (long) Math.ceil(total * percentile / 100);
+        long seen = 0;
+        for (int b = 0; b < counts.length; b++) {
+            seen += counts[b];
+            if (seen >= rank) {
+                return b == Long.SIZE - 1 ? Long.MAX_VALUE : 1L << b;
+            }
+        }
+        return Long.MAX_VALUE;
+    }
+}
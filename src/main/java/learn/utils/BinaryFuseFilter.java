@@ -0,0 +1,321 @@
+package learn.utils;
+
+import learn.hash.QuickHash;
+import learn.hash.SplitMix64;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+
+/**
+ * An immutable binary fuse filter (Graf and Lemire) with 8-bit fingerprints: about 9 bits per element for a
+ * false positive rate of 1/256, against 9.6 bits for a 1% Bloom filter, and exactly three reads per query.
+ * Suits dictionaries that are built once and only queried until the next build; nothing can be added to it.
+ *
+ * Each element is hashed once by the header's algorithm to a 64-bit key. A query mixes the key with the filter's
+ * seed, picks three fingerprint slots in three consecutive segments, and finds the element when their XOR equals
+ * the key's fingerprint. Building solves for fingerprints satisfying every key by peeling, retrying with another
+ * seed in the rare case it does not finish.
+ *
+ * The compiled payload is little-endian: the seed (long), segment length (int) and segment count (int),
+ * then one byte per fingerprint slot.
+ */
+public final class BinaryFuseFilter implements MembershipFilter {
+    public static final double FALSE_POSITIVE_RATE = 1.0 / 256;
+
+    private static final int ARITY = 3;
+    private static final int MAX_SEGMENT_LENGTH = 1 << 18;
+    private static final int MAX_ATTEMPTS = 100;
+    // every element is hashed with the same seed; the filter's own seed is mixed in afterwards
+    private static final int KEY_SEED = 0;
+    private static final long SEED_SEQUENCE = 0x726b2b9d438b9d4dL;
+
+    private static final ValueLayout.OfLong LONG_LE = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfInt INT_LE = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final int PREAMBLE_BYTES = Long.BYTES + 2 * Integer.BYTES;
+
+    private final long seed;
+    private final int segmentLength;
+    private final int segmentLengthMask;
+    private final int segmentCount;
+    private final int segmentCountLength;
+    private final MemorySegment fingerprints;
+    private final QuickHash quickHash;
+
+    private BinaryFuseFilter(long seed, int segmentLength, int segmentCount, MemorySegment fingerprints,
+                             QuickHash quickHash) {
+        this.seed = seed;
+        this.segmentLength = segmentLength;
+        this.segmentLengthMask = segmentLength - 1;
+        this.segmentCount = segmentCount;
+        this.segmentCountLength = segmentCount * segmentLength;
+        this.fingerprints = fingerprints;
+        this.quickHash = quickHash;
+    }
+
+    /**
+     * Build a binary fuse filter holding exactly some elements
+     * @param elements The members; duplicates are allowed
+     * @param quickHash Hashes each element to its key
+     * @return The binary fuse filter
+     */
+    public static BinaryFuseFilter build(String[] elements, QuickHash quickHash) {
+        long[] keys = new long[elements.length];
+        for (int i = 0; i < elements.length; i++) {
+            keys[i] = quickHash.hash(elements[i], KEY_SEED);
+        }
+        return fromKeys(keys, quickHash);
+    }
+
+    /**
+     * Returns the key of an element given as a slice of a byte array, for gathering keys to pass to fromKeys()
+     * without holding the elements themselves
+     */
+    public static long keyOf(byte[] element, int offset, int length, QuickHash quickHash) {
+        return quickHash.hash(element, offset, length, KEY_SEED);
+    }
+
+    /**
+     * Build a binary fuse filter from the keys of its members
+     * @param keys The keys returned by keyOf(); sorted and deduplicated in place
+     * @param quickHash The hash the keys were computed with, used to hash queried elements alike
+     * @return The binary fuse filter
+     * @throws IllegalStateException If no seed lets the fingerprints be solved, which in practice never happens
+     */
+    public static BinaryFuseFilter fromKeys(long[] keys, QuickHash quickHash) {
+        // peeling cannot separate equal keys, so drop repeats first
+        Arrays.sort(keys);
+        int size = 0;
+        for (int i = 0; i < keys.length; i++) {
+            if (i == 0 || keys[i] != keys[i - 1]) {
+                keys[size++] = keys[i];
+            }
+        }
+
+        // sizes as in the reference implementation: larger sets need relatively fewer spare slots
+        int segmentLength = size == 0
+                ? 4
+                : Math.min(MAX_SEGMENT_LENGTH, 1 << (int) Math.floor(Math.log(size) / Math.log(3.33) + 2.25));
+        double sizeFactor = size <= 1 ? 0 : Math.max(1.125, 0.875 + 0.25 * Math.log(1_000_000) / Math.log(size));
+        long capacity = Math.round(size * sizeFactor);
+        long segmentCount = Math.max(1, (capacity + segmentLength - 1) / segmentLength - (ARITY - 1));
+        long arrayLength = (segmentCount + ARITY - 1) * segmentLength;
+        if (arrayLength > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Too many elements for a binary fuse filter: " + size);
+        }
+
+        byte[] fingerprints = new byte[(int) arrayLength];
+        for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+            // the attempt-th output of a SplitMix64 sequence, so builds are reproducible
+            long seed = SplitMix64.hash(SEED_SEQUENCE, attempt);
+            BinaryFuseFilter filter = new BinaryFuseFilter(seed, segmentLength, (int) segmentCount,
+                    MemorySegment.ofArray(fingerprints), quickHash);
+
+            if (filter.populate(keys, size, fingerprints)) {
+                return filter;
+            }
+        }
+
+        throw new IllegalStateException("Could not build a binary fuse filter in " + MAX_ATTEMPTS + " attempts");
+    }
+
+    /**
+     * Build a binary fuse filter over a compiled payload, such as a memory-mapped file, without copying it
+     * @param data The payload of a compiled filter, as written by toMemorySegment()
+     * @param header The build info saved with the compiled filter
+     * @return The binary fuse filter
+     */
+    public static BinaryFuseFilter map(MemorySegment data, BuildInfo header) {
+        if (header.getLayout() != BuildInfo.Layout.FUSE) {
+            throw new IllegalArgumentException("Not a binary fuse filter: " + header.getLayout());
+        }
+        if (data.byteSize() < PREAMBLE_BYTES) {
+            throw new IllegalArgumentException("Invalid binary fuse filter: truncated preamble");
+        }
+
+        long seed = data.get(LONG_LE, 0);
+        int segmentLength = data.get(INT_LE, Long.BYTES);
+        int segmentCount = data.get(INT_LE, Long.BYTES + Integer.BYTES);
+        if (Integer.bitCount(segmentLength) != 1 || segmentLength > MAX_SEGMENT_LENGTH || segmentCount < 1) {
+            throw new IllegalArgumentException("Invalid binary fuse filter: " + segmentCount + " segments of "
+                    + segmentLength);
+        }
+
+        long arrayLength = (long) (segmentCount + ARITY - 1) * segmentLength;
+        if (data.byteSize() < PREAMBLE_BYTES + arrayLength) {
+            throw new IllegalArgumentException("Invalid binary fuse filter: truncated fingerprints");
+        }
+
+        return new BinaryFuseFilter(seed, segmentLength, segmentCount, data.asSlice(PREAMBLE_BYTES, arrayLength),
+                header.getHashAlgorithm().getHasher());
+    }
+
+    /**
+     * Returns the false positive probability, fixed by the width of the fingerprints
+     */
+    public double getDFP() {
+        return FALSE_POSITIVE_RATE;
+    }
+
+    /**
+     * Returns the number of fingerprints read per query
+     */
+    public int getNumOfHashFunctions() {
+        return ARITY;
+    }
+
+    /**
+     * Returns the number of bits of fingerprints, not counting the preamble
+     */
+    public long getBitCount() {
+        return fingerprints.byteSize() * Byte.SIZE;
+    }
+
+    @Override
+    public boolean contains(String element) {
+        if (null == element) {
+            throw new IllegalArgumentException("element cannot be null");
+        }
+        return containsKey(quickHash.hash(element, KEY_SEED));
+    }
+
+    @Override
+    public boolean contains(byte[] element, int offset, int length) {
+        if (null == element) {
+            throw new IllegalArgumentException("element cannot be null");
+        }
+        return containsKey(keyOf(element, offset, length, quickHash));
+    }
+
+    /**
+     * Returns the filter as a compiled payload, read back by map()
+     */
+    public MemorySegment toMemorySegment() {
+        MemorySegment out = MemorySegment.ofArray(new byte[(int) (PREAMBLE_BYTES + fingerprints.byteSize())]);
+        out.set(LONG_LE, 0, seed);
+        out.set(INT_LE, Long.BYTES, segmentLength);
+        out.set(INT_LE, Long.BYTES + Integer.BYTES, segmentCount);
+        MemorySegment.copy(fingerprints, 0, out, PREAMBLE_BYTES, fingerprints.byteSize());
+        return out;
+    }
+
+    // ----------------------------- HELPERS -----------------------------
+
+    private boolean containsKey(long key) {
+        long hash = mix(key + seed);
+        int h0 = (int) Math.unsignedMultiplyHigh(hash, segmentCountLength);
+        int h1 = (h0 + segmentLength) ^ ((int) (hash >>> 18) & segmentLengthMask);
+        int h2 = (h0 + 2 * segmentLength) ^ ((int) hash & segmentLengthMask);
+
+        byte xor = (byte) (fingerprint(hash)
+                ^ fingerprints.get(ValueLayout.JAVA_BYTE, h0)
+                ^ fingerprints.get(ValueLayout.JAVA_BYTE, h1)
+                ^ fingerprints.get(ValueLayout.JAVA_BYTE, h2));
+        return xor == 0;
+    }
+
+    // solves for fingerprints under this filter's seed; false if the keys could not all be peeled
+    private boolean populate(long[] keys, int size, byte[] out) {
+        int arrayLength = out.length;
+        long[] hashes = new long[size];
+        for (int i = 0; i < size; i++) {
+            hashes[i] = mix(keys[i] + seed);
+        }
+        // the first slot grows with the hash, so sorted hashes fill the arrays front to back
+        Arrays.sort(hashes);
+
+        // per slot: the XOR of the hashes mapped to it, and 4 times their count plus the XOR of their positions
+        long[] slotHashes = new long[arrayLength];
+        byte[] slotCounts = new byte[arrayLength];
+        for (long hash: hashes) {
+            for (int position = 0; position < ARITY; position++) {
+                int slot = slot(hash, position);
+                slotCounts[slot] += 4;
+                slotCounts[slot] ^= (byte) position;
+                slotHashes[slot] ^= hash;
+                // more keys in one slot than a byte can count
+                if ((slotCounts[slot] & 0xFF) < 4) {
+                    return false;
+                }
+            }
+        }
+
+        // peel slots holding a single key, freeing the other slots of that key in turn
+        int[] alone = new int[arrayLength];
+        int nAlone = 0;
+        for (int slot = 0; slot < arrayLength; slot++) {
+            alone[nAlone] = slot;
+            nAlone += count(slotCounts[slot]) == 1 ? 1 : 0;
+        }
+
+        long[] stackHashes = new long[size];
+        byte[] stackPositions = new byte[size];
+        int stackSize = 0;
+        while (nAlone > 0) {
+            int slot = alone[--nAlone];
+            if (count(slotCounts[slot]) != 1) {
+                continue;
+            }
+
+            long hash = slotHashes[slot];
+            int found = slotCounts[slot] & 3;
+            stackHashes[stackSize] = hash;
+            stackPositions[stackSize] = (byte) found;
+            stackSize++;
+
+            for (int other = 1; other < ARITY; other++) {
+                int position = (found + other) % ARITY;
+                int otherSlot = slot(hash, position);
+                alone[nAlone] = otherSlot;
+                nAlone += count(slotCounts[otherSlot]) == 2 ? 1 : 0;
+                slotCounts[otherSlot] -= 4;
+                slotCounts[otherSlot] ^= (byte) position;
+                slotHashes[otherSlot] ^= hash;
+            }
+        }
+
+        if (stackSize != size) {
+            return false;
+        }
+
+        // assign in reverse peeling order, so each key's own slot is set after its other two are final
+        Arrays.fill(out, (byte) 0);
+        for (int i = stackSize - 1; i >= 0; i--) {
+            long hash = stackHashes[i];
+            int found = stackPositions[i];
+            out[slot(hash, found)] = (byte) (fingerprint(hash)
+                    ^ out[slot(hash, (found + 1) % ARITY)]
+                    ^ out[slot(hash, (found + 2) % ARITY)]);
+        }
+
+        return true;
+    }
+
+    // the slot of a hash at a position, in the position-th of three consecutive segments
+    private int slot(long hash, int position) {
+        long h = Math.unsignedMultiplyHigh(hash, segmentCountLength) + (long) position * segmentLength;
+        // positions 1 and 2 move within their segment by bits 18-35 and 0-17 of the hash
+        long offsets = hash & ((1L << 36) - 1);
+        h ^= (offsets >>> (36 - 18 * position)) & segmentLengthMask;
+        return (int) h;
+    }
+
+    private static int count(byte slotCount) {
+        return (slotCount & 0xFF) >>> 2;
+    }
+
+    private static byte fingerprint(long hash) {
+        return (byte) (hash ^ (hash >>> 32));
+    }
+
+    // MurmurHash3 64-bit finalizer
+    private static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+}
@@ -0,0 +1,30 @@
+package learn.utils;
+
+import java.lang.foreign.MemorySegment;
+import java.util.BitSet;
+
+/**
+ * The bits behind a Bloom filter, indexed from 0.
+ */
+interface BitStore {
+    boolean get(long index);
+
+    void set(long index);
+
+    /**
+     * Returns the bits as a BitSet; a copy unless the store is backed by one.
+     * Throws UnsupportedOperationException if the store has bits beyond the reach of a BitSet.
+     */
+    BitSet toBitSet();
+
+    /**
+     * Returns the bits in the little-endian byte layout of compiled payloads, without copying them,
+     * or null if the store does not hold them that way
+     */
+    MemorySegment segment();
+
+    /**
+     * Returns the number of set bits
+     */
+    long cardinality();
+}
@@ -0,0 +1,77 @@
+package learn.utils;
+
+import java.lang.foreign.MemorySegment;
+import java.util.stream.LongStream;
+
+/**
+ * Combines the bit arrays of compatible filters in place, a word at a time: OR for a union, AND for an intersection.
+ * Works on any segment, typically memory-mapped compiled payloads, so filters larger than the heap merge without
+ * being read into it. Arrays of more than one chunk are split across the common pool, one chunk per task,
+ * so a large merge runs at the speed of memory rather than of one core. Each chunk is combined by WordKernels,
+ * a vector at a time where the Vector API is available.
+ *
+ * Payloads saved from a BitSet may be missing their trailing zero bytes, so a shorter source counts as zeros
+ * beyond its end. The target must hold every byte of the result.
+ */
+public final class BitwiseMerge {
+    private static final long CHUNK_BYTES = 1 << 22;
+
+    // never started; only asks whether a segment may be touched by threads other than the caller
+    private static final Thread OTHER_THREAD = Thread.ofVirtual().unstarted(() -> {});
+
+    private BitwiseMerge() {}
+
+    /**
+     * Sets every bit of target that is set in source
+     * @param target The bit array to merge into; must be writable
+     * @param source The bit array to merge from, in the same layout
+     */
+    public static void or(MemorySegment target, MemorySegment source) {
+        merge(target, source, false);
+    }
+
+    /**
+     * Clears every bit of target that is clear in source
+     * @param target The bit array to merge into; must be writable
+     * @param source The bit array to merge from, in the same layout
+     */
+    public static void and(MemorySegment target, MemorySegment source) {
+        merge(target, source, true);
+    }
+
+    // ----------------------------- HELPERS -----------------------------
+
+    private static void merge(MemorySegment target, MemorySegment source, boolean intersect) {
+        if (target.isReadOnly()) {
+            throw new UnsupportedOperationException("Cannot merge into a read-only bit array");
+        }
+
+        long common = Math.min(target.byteSize(), source.byteSize());
+        long nChunks = (common + CHUNK_BYTES - 1) / CHUNK_BYTES;
+
+        LongStream chunks = LongStream.range(0, nChunks);
+        // segments of a confined arena can only be touched by the thread that owns them
+        if (nChunks > 1 && target.isAccessibleBy(OTHER_THREAD) && source.isAccessibleBy(OTHER_THREAD)) {
+            chunks = chunks.parallel();
+        }
+
+        chunks.forEach(chunk -> {
+            long from = chunk * CHUNK_BYTES;
+            mergeRange(target, source, from, Math.min(common, from + CHUNK_BYTES), intersect);
+        });
+
+        // beyond the end of the source, every bit is clear
+        if (intersect && target.byteSize() > common) {
+            target.asSlice(common).fill((byte) 0);
+        }
+    }
+
+    private static void mergeRange(MemorySegment target, MemorySegment source, long from, long to,
+                                   boolean intersect) {
+        if (intersect) {
+            WordKernels.INSTANCE.and(target, source, from, to);
+        } else {
+            WordKernels.INSTANCE.or(target, source, from, to);
+        }
+    }
+}
@@ -0,0 +1,331 @@
+package learn.utils;
+
+import learn.hash.FNV1A64;
+import learn.hash.QuickHash;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A Bloom filter that confines every probe for an element to one 512-bit (64-byte) block,
+ * so a query reads one cache-line sized block instead of k scattered words.
+ * Each probe sets one bit in a different word of the block, chosen by multiplying the element's
+ * hash with a precomputed odd salt.
+ *
+ * Blocks fill unevenly, so the false positive rate is higher than a standard filter of the same size.
+ * build() adds blocks until the estimated rate meets the desired one.
+ * The JVM only aligns a long[] to 8 bytes, so a block may straddle two cache lines.
+ *
+ * add() sets bits with an atomic fetch-or, so a filter can be populated from several threads.
+ */
+public class BlockedBloomFilter implements MembershipFilter {
+    public static final int BLOCK_BITS = 512;
+    private static final int WORDS_PER_BLOCK = BLOCK_BITS / Long.SIZE;
+    // the words of every block must fit in one long[]
+    private static final int MAX_BLOCKS = Integer.MAX_VALUE / WORDS_PER_BLOCK - 1;
+    private static final int SEED = 1;
+    private static final VarHandle WORDS = MethodHandles.arrayElementVarHandle(long[].class);
+
+    // one salt per probe, so the maximum number of hash functions
+    private static final long[] SALTS = generateSalts(32);
+
+    private final long[] words;
+    private final int nBlocks;
+    private final int nHashes;
+    private final double DFP; // desired false positive probability
+    private final QuickHash quickHash;
+    private final IndexReduction blockReduction;
+
+    private BlockedBloomFilter(double dfp, long[] words, int nBlocks, int nHashes, QuickHash quickHash) {
+        this.DFP = dfp;
+        this.words = words;
+        this.nBlocks = nBlocks;
+        this.nHashes = nHashes;
+        this.quickHash = quickHash;
+        // blocks are indexed the same way a standard filter indexes bits
+        this.blockReduction = IndexReduction.forBitCount(nBlocks);
+    }
+
+    /**
+     * Build a new blocked Bloom filter for some number of elements
+     * @param dfp The desired false positive probability of the filter
+     * @param nElements The number of expected elements added to the filter
+     * @return The blocked Bloom filter
+     */
+    public static BlockedBloomFilter build(double dfp, long nElements) {
+        return build(dfp, nElements, false);
+    }
+
+    /**
+     * Build a new blocked Bloom filter for some number of elements
+     * @param dfp The desired false positive probability of the filter
+     * @param nElements The number of expected elements added to the filter
+     * @param roundToPowerOfTwo Round the number of blocks up to a power of two, so blocks are mapped with a mask
+     * @return The blocked Bloom filter
+     */
+    public static BlockedBloomFilter build(double dfp, long nElements, boolean roundToPowerOfTwo) {
+        return build(dfp, nElements, roundToPowerOfTwo, FNV1A64.INSTANCE);
+    }
+
+    /**
+     * Build a new blocked Bloom filter for some number of elements
+     * @param dfp The desired false positive probability of the filter
+     * @param nElements The number of expected elements added to the filter
+     * @param roundToPowerOfTwo Round the number of blocks up to a power of two, so blocks are mapped with a mask
+     * @param quickHash The hashing algorithm, fixed for the life of the filter
+     * @return The blocked Bloom filter
+     */
+    public static BlockedBloomFilter build(double dfp, long nElements, boolean roundToPowerOfTwo,
+                                           QuickHash quickHash) {
+        if (null == quickHash) {
+            throw new IllegalArgumentException("hasher cannot be null");
+        }
+
+        int nHashes = calculateNumOfHashFunctions(dfp, nElements);
+        int nBlocks = calculateNumOfBlocks(dfp, nElements);
+
+        if (roundToPowerOfTwo) {
+            nBlocks = nBlocks <= 1 ? 1 : Integer.highestOneBit(nBlocks - 1) << 1;
+            if (nBlocks <= 0 || nBlocks > MAX_BLOCKS) {
+                throw new IllegalArgumentException("Bit array too large to round up to a power of two");
+            }
+        }
+
+        return new BlockedBloomFilter(dfp, new long[nBlocks * WORDS_PER_BLOCK], nBlocks, nHashes, quickHash);
+    }
+
+    /**
+     * Build a blocked Bloom filter using a previously compiled filter and the header it was saved with
+     * @param data The words of a compiled filter, little-endian
+     * @param header The build info saved with the compiled filter
+     * @return The blocked Bloom filter
+     */
+    public static BlockedBloomFilter build(byte[] data, BuildInfo header) {
+        long blocks = header.getBloomFilterBitsRequired() / BLOCK_BITS;
+        int nHashes = header.getNHashFunctions();
+
+        if (blocks <= 0 || blocks > MAX_BLOCKS || nHashes <= 0 || nHashes > SALTS.length) {
+            throw new IllegalArgumentException("Invalid blocked filter header");
+        }
+
+        int nBlocks = (int) blocks;
+
+        long[] words = new long[nBlocks * WORDS_PER_BLOCK];
+        ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer()
+                .get(words, 0, Math.min(words.length, data.length / Long.BYTES));
+
+        return new BlockedBloomFilter(header.getDFP(), words, nBlocks, nHashes,
+                header.getHashAlgorithm().getHasher());
+    }
+
+    /**
+     * Returns the desired false positive probability
+     */
+    public double getDFP() {
+        return DFP;
+    }
+
+    /**
+     * Returns the number of probes per element
+     */
+    public int getNumOfHashFunctions() {
+        return nHashes;
+    }
+
+    /**
+     * Returns the number of bits in the filter, a whole number of blocks
+     */
+    public long getBitCount() {
+        return (long) nBlocks * BLOCK_BITS;
+    }
+
+    /**
+     * Returns the words of the filter as little-endian bytes, the layout read by build(byte[], BuildInfo)
+     */
+    public byte[] toByteArray() {
+        ByteBuffer out = ByteBuffer.allocate(words.length * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        out.asLongBuffer().put(words);
+        return out.array();
+    }
+
+    /**
+     * Returns the words of the filter as little-endian bytes, without the 2 GB limit of toByteArray()
+     */
+    public MemorySegment toMemorySegment() {
+        return LittleEndianWords.asSegment(words);
+    }
+
+    /**
+     * Adds a new member to the member set. Safe to call from any number of threads.
+     * @param element The new member to add
+     */
+    public void add(String element) {
+        verifyState(element);
+
+        addHash(quickHash.hash(element, SEED));
+    }
+
+    /**
+     * Adds a new member given as raw bytes, such as a UTF-8 encoded line, without decoding it.
+     * Matches add(String) for the UTF-8 encoding of the same element. Safe to call from any number of threads.
+     * @param element The array holding the new member
+     * @param offset The index of the member's first byte
+     * @param length The number of bytes in the member
+     */
+    public void add(byte[] element, int offset, int length) {
+        verifyState(element);
+
+        addHash(quickHash.hash(element, offset, length, SEED));
+    }
+
+    private void addHash(long hash) {
+        int offset = (int) blockReduction.index(hash, nBlocks) * WORDS_PER_BLOCK;
+        long probes = ProbeStrategy.step(hash);
+
+        for (int i = 0; i < nHashes; i++) {
+            int word = offset + (i & (WORDS_PER_BLOCK - 1));
+            long mask = bitFor(probes, i);
+
+            // skip the atomic write when the bit is already set
+            if (((long) WORDS.getOpaque(words, word) & mask) == 0) {
+                WORDS.getAndBitwiseOr(words, word, mask);
+            }
+        }
+    }
+
+    /**
+     * Queries the member set to check for an element
+     * @param element The element to query
+     * @return true The element exists in the set
+     *         false The element does not exist in set
+     */
+    @Override
+    public boolean contains(String element) {
+        verifyState(element);
+
+        return containsHash(quickHash.hash(element, SEED));
+    }
+
+    /**
+     * Queries the member set for an element given as raw bytes, without decoding it
+     * @param element The array holding the element to query
+     * @param offset The index of the element's first byte
+     * @param length The number of bytes in the element
+     * @return true The element exists in the set
+     *         false The element does not exist in set
+     */
+    @Override
+    public boolean contains(byte[] element, int offset, int length) {
+        verifyState(element);
+
+        return containsHash(quickHash.hash(element, offset, length, SEED));
+    }
+
+    private boolean containsHash(long hash) {
+        int offset = (int) blockReduction.index(hash, nBlocks) * WORDS_PER_BLOCK;
+        long probes = ProbeStrategy.step(hash);
+
+        for (int i = 0; i < nHashes; i++) {
+            long mask = bitFor(probes, i);
+            if ((words[offset + (i & (WORDS_PER_BLOCK - 1))] & mask) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // ----------------------------- HELPERS -----------------------------
+
+    private void verifyState(Object element) {
+        if (null == element) {
+            throw new IllegalArgumentException("element cannot be null");
+        }
+    }
+
+    // The top 6 bits of (probes * salt) select the bit within the probe's word
+    private static long bitFor(long probes, int probe) {
+        return 1L << ((probes * SALTS[probe]) >>> 58);
+    }
+
+    private static long[] generateSalts(int count) {
+        // SplitMix64 sequence, forced odd
+        long[] salts = new long[count];
+        long state = 0x9E3779B97F4A7C15L;
+        for (int i = 0; i < count; i++) {
+            long z = (state += 0x9E3779B97F4A7C15L);
+            z = (z ^ (z >>> 30)) * 0xBF58476D1CE4E5B9L;
+            z = (z ^ (z >>> 27)) * 0x94D049BB133111EBL;
+            salts[i] = (z ^ (z >>> 31)) | 1L;
+        }
+        return salts;
+    }
+
+    /**
+     * Calculate the number of probes per element, the standard optimum capped at the number of salts
+     * @param desiredFalsePositive The desired false positive probability
+     * @param nElements The number of elements inserted
+     */
+    public static int calculateNumOfHashFunctions(double desiredFalsePositive, long nElements) {
+        long nBits = BloomFilter.calculateBitArraySize(desiredFalsePositive, nElements);
+        return Math.min(BloomFilter.calculateNumOfHashFunctions(nBits, nElements), SALTS.length);
+    }
+
+    /**
+     * Calculate the number of blocks, starting from the size of a standard filter and growing it
+     * until the estimated blocked false positive rate meets the desired one
+     * @param desiredFalsePositive The desired false positive probability
+     * @param nElements The number of elements inserted
+     * @return The suggested number of 512-bit blocks
+     */
+    public static int calculateNumOfBlocks(double desiredFalsePositive, long nElements) {
+        long nBits = BloomFilter.calculateBitArraySize(desiredFalsePositive, nElements);
+        int nHashes = calculateNumOfHashFunctions(desiredFalsePositive, nElements);
+
+        long nBlocks = (nBits + BLOCK_BITS - 1L) / BLOCK_BITS;
+        while (nBlocks < MAX_BLOCKS
+                && estimateFalsePositiveRate((int) nBlocks, nHashes, nElements) > desiredFalsePositive) {
+            nBlocks += Math.max(1, nBlocks / 100);
+        }
+
+        if (nBlocks > MAX_BLOCKS) {
+            throw new IllegalArgumentException("Too many elements for a blocked filter");
+        }
+        return (int) nBlocks;
+    }
+
+    /**
+     * Estimate the false positive rate of a blocked filter. The number of elements landing in a block is
+     * Poisson distributed, and probe i of every element lands in word (i mod 8) of its block, so each word
+     * behaves as a small standard filter of 64 bits.
+     * @param nBlocks The number of blocks
+     * @param nHashes The number of probes per element
+     * @param nElements The number of elements inserted
+     * @return The estimated false positive probability
+     */
+    public static double estimateFalsePositiveRate(int nBlocks, int nHashes, long nElements) {
+        double lambda = (double) nElements / nBlocks;
+        int maxLoad = (int) Math.ceil(lambda + 12 * Math.sqrt(lambda) + 20);
+
+        double fpr = 0;
+        double logPoisson = -lambda; // log P(load = 0)
+        for (int load = 0; load <= maxLoad; load++) {
+            if (load > 0) {
+                logPoisson += Math.log(lambda) - Math.log(load);
+            }
+
+            double blockFpr = 1;
+            for (int word = 0; word < WORDS_PER_BLOCK && word < nHashes; word++) {
+                int probesInWord = (nHashes - word + WORDS_PER_BLOCK - 1) / WORDS_PER_BLOCK;
+                double bitSet = 1 - Math.pow(1 - 1.0 / Long.SIZE, (double) probesInWord * load);
+                blockFpr *= Math.pow(bitSet, probesInWord);
+            }
+            fpr += Math.exp(logPoisson) * blockFpr;
+        }
+
+        return fpr;
+    }
+}
@@ -2,28 +2,49 @@ package learn.utils;
 
 import learn.hash.FNV1A64;
 import learn.hash.QuickHash;
+import learn.hash.SplitMix64;
 
-import java.nio.charset.StandardCharsets;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
 import java.util.Arrays;
 import java.util.BitSet;
+import java.util.function.IntToLongFunction;
 import java.util.stream.IntStream;
 
-public class BloomFilter {
+/**
+ * A Bloom filter over a java.util.BitSet. Not thread-safe: share a ConcurrentBloomFilter across
+ * threads that add while others query.
+ */
+public class BloomFilter implements MembershipFilter {
     public static final double DFP_MAX = 1.0;
     public static final double DFP_MIN =  0.0;
     public static final double DFP_DEFAULT = 0.01;
 
-    private final BitSet bitArray;
+    // the most bits a java.util.BitSet can index; larger filters are held off the heap
+    private static final long MAX_HEAP_BITS = Integer.MAX_VALUE;
+
+    // the batch calls hash this many elements before touching the bit array
+    private static final int BATCH_SIZE = 64;
+
+    private final BitStore bitArray;
+    private final long nBits;
     private final double DFP; // desired false positive probability
     private int[] seeds;
     private QuickHash quickHash;
+    private final ProbeStrategy probeStrategy;
+    private final IndexReduction indexReduction;
 
 
-    private BloomFilter(double dfp, int[] seeds, BitSet bitArray, QuickHash quickHash) {
+    private BloomFilter(double dfp, int[] seeds, BitStore bitArray, long nBits, QuickHash quickHash,
+                        ProbeStrategy probeStrategy, IndexReduction indexReduction) {
         this.DFP = isValidDfp(dfp) ? dfp : DFP_DEFAULT;
         this.seeds = seeds;
         this.bitArray = bitArray;
+        this.nBits = nBits;
         this.quickHash = quickHash;
+        this.probeStrategy = probeStrategy;
+        this.indexReduction = indexReduction;
     }
 
     /**
@@ -32,31 +53,107 @@ public class BloomFilter {
      * @param nElements The number of expected elements added to the filter
      * @return The Bloom filter
      */
-    public static BloomFilter build(double dfp, int nElements) {
-        int nBits = calculateBitArraySize(dfp, nElements);
-        int nHashes = calculateNumOfHashFunctions(nBits, nElements);
+    public static BloomFilter build(double dfp, long nElements) {
+        return build(dfp, nElements, false);
+    }
 
-        BitSet bitArray = new BitSet(nBits);
+    /**
+     * Build a new Bloom filter for some number of elements
+     * @param dfp The desired false positive probability of the filter
+     * @param nElements The number of expected elements added to the filter
+     * @param roundToPowerOfTwo Round the bit array up to a power of two, so indices are mapped with a mask
+     * @return The Bloom filter, held off the heap if it needs more bits than a BitSet can index
+     */
+    public static BloomFilter build(double dfp, long nElements, boolean roundToPowerOfTwo) {
+        long nBits = bitCountFor(dfp, nElements, roundToPowerOfTwo);
+
+        if (nBits > MAX_HEAP_BITS) {
+            return build(dfp, nElements, roundToPowerOfTwo, Arena.ofAuto());
+        }
+
+        BitSet bitArray = new BitSet((int) nBits);
         bitArray.clear();
 
+        return build(dfp, nElements, nBits, new HeapBitStore(bitArray));
+    }
+
+    /**
+     * Build a new Bloom filter for some number of elements, with its bit array allocated off the heap
+     * @param dfp The desired false positive probability of the filter
+     * @param nElements The number of expected elements added to the filter
+     * @param roundToPowerOfTwo Round the bit array up to a power of two, so indices are mapped with a mask
+     * @param arena Allocates the bit array; the filter is unusable once it closes
+     * @return The Bloom filter
+     */
+    public static BloomFilter build(double dfp, long nElements, boolean roundToPowerOfTwo, Arena arena) {
+        long nBits = bitCountFor(dfp, nElements, roundToPowerOfTwo);
+
+        return build(dfp, nElements, nBits, new OffHeapBitStore(nBits, arena));
+    }
+
+    private static BloomFilter build(double dfp, long nElements, long nBits, BitStore bitArray) {
+        int nHashes = calculateNumOfHashFunctions(calculateBitArraySize(dfp, nElements), nElements);
         int[] seeds = IntStream.rangeClosed(1, nHashes).toArray();
 
-        return new BloomFilter(dfp, seeds, bitArray, FNV1A64::hash);
+        return new BloomFilter(dfp, seeds, bitArray, nBits, FNV1A64.INSTANCE,
+                ProbeStrategy.DOUBLE_HASHING, IndexReduction.forBitCount(nBits));
+    }
+
+    private static long bitCountFor(double dfp, long nElements, boolean roundToPowerOfTwo) {
+        long nBits = calculateBitArraySize(dfp, nElements);
+        return roundToPowerOfTwo ? roundUpToPowerOfTwo(nBits) : nBits;
     }
 
     /**
-     * Build a Bloom filter using a previously compiled filter bit array
+     * Build a Bloom filter using a previously compiled filter bit array and the header it was saved with
      * @param data The bit array of a compiled filter
-     * @param nSeeds The number of seeds to use for this filter's hashing function
+     * @param header The build info saved with the compiled filter
      * @return The Bloom filter
      */
-    public static BloomFilter build(byte[] data, int nSeeds) {
-        nSeeds = Math.max(nSeeds, 2);
+    public static BloomFilter build(byte[] data, BuildInfo header) {
+        return fromCompiled(new HeapBitStore(BitSet.valueOf(data)), data.length, header);
+    }
+
+    /**
+     * Build a Bloom filter that answers queries straight out of a compiled filter bit array,
+     * without copying it onto the heap. add() sets bits in place if the array is writable, and otherwise
+     * throws UnsupportedOperationException. A writable array must hold every byte of the bit count.
+     * @param data The bit array of a compiled filter, typically a memory-mapped file; must outlive the filter
+     * @param header The build info saved with the compiled filter
+     * @return The mapped Bloom filter
+     */
+    public static BloomFilter map(MemorySegment data, BuildInfo header) {
+        return fromCompiled(new MappedBitStore(data), data.byteSize(), header);
+    }
+
+    /**
+     * Build a Bloom filter that sets bits in place in a writable compiled filter bit array,
+     * recording each bit it sets so the payload checksum can be updated without reading the array again
+     * @param data The writable bit array of a compiled filter; must hold every byte of the bit count
+     * @param header The build info saved with the compiled filter
+     * @param changes Told of each bit that add() sets
+     * @return The mapped Bloom filter
+     */
+    public static BloomFilter map(MemorySegment data, BuildInfo header, PayloadChanges changes) {
+        return fromCompiled(new MappedBitStore(data, changes), data.byteSize(), header);
+    }
+
+    private static BloomFilter fromCompiled(BitStore bitArray, long payloadBytes, BuildInfo header) {
+        int nSeeds = Math.max(header.getNHashFunctions(), 2);
         int[] seeds = IntStream.rangeClosed(1, nSeeds).toArray();
 
-        BitSet bitArray = BitSet.valueOf(data);
+        if (header.getVersion() < BuildInfo.CURRENT_VERSION) {
+            // built with modulo over the capacity of a BitSet(nBits), which is rounded up to whole words
+            long capacity = recoverLegacyCapacity(header.getBloomFilterBitsRequired(), payloadBytes);
 
-        return new BloomFilter(DFP_DEFAULT, seeds, bitArray, FNV1A64::hash);
+            return new BloomFilter(header.getDFP(), seeds, bitArray, capacity, header.getHashAlgorithm().getHasher(),
+                    header.getProbeStrategy(), IndexReduction.MODULO);
+        }
+
+        long nBits = header.getBloomFilterBitsRequired();
+
+        return new BloomFilter(header.getDFP(), seeds, bitArray, nBits, header.getHashAlgorithm().getHasher(),
+                header.getProbeStrategy(), IndexReduction.forBitCount(nBits));
     }
 
     /**
@@ -67,7 +164,15 @@ public class BloomFilter {
     }
 
     /**
-     * Returns the seeds used for the hashing algorithm implemented by QuickHash
+     * Returns how this filter derives bit indices from an element
+     */
+    public ProbeStrategy getProbeStrategy() {
+        return probeStrategy;
+    }
+
+    /**
+     * Returns the seeds used for the hashing algorithm implemented by QuickHash.
+     * With double hashing only the first seed is hashed; the length is the number of probes.
      */
     public int[] getSeeds() {
         return Arrays.copyOf(seeds, seeds.length);
@@ -80,10 +185,56 @@ public class BloomFilter {
     }
 
     /**
-     * Returns the underlying bit array
+     * Returns the number of bits that indices are mapped onto
+     */
+    public long getBitCount() {
+        return nBits;
+    }
+
+    /**
+     * Returns how this filter maps hashes onto bit indices
+     */
+    public IndexReduction getIndexReduction() {
+        return indexReduction;
+    }
+
+    /**
+     * Returns the number of set bits. Counts them on every call, at the speed of a scan of the bit array.
+     */
+    public long getBitPopulation() {
+        return bitArray.cardinality();
+    }
+
+    /**
+     * Returns the fraction of bits set, which approaches 1/2 as the filter fills to the capacity it was sized for
+     */
+    public double getFillRatio() {
+        return (double) getBitPopulation() / nBits;
+    }
+
+    /**
+     * Estimates how many distinct elements have been added from the bits set, by Swamidass and Baldi:
+     * -(m / k) ln(1 - X / m), for m bits, k probes and X bits set
+     * @return The estimate, or Double.POSITIVE_INFINITY once every bit is set
+     */
+    public double estimateElementCount() {
+        return -((double) nBits / seeds.length) * Math.log1p(-getFillRatio());
+    }
+
+    /**
+     * Estimates the false positive probability the filter answers with now: the chance that all k probes of an
+     * element never added land on set bits, (X / m)^k. Compare with getDFP() to tell when a filter is over capacity.
+     */
+    public double estimateFalsePositiveRate() {
+        return Math.pow(getFillRatio(), seeds.length);
+    }
+
+    /**
+     * Returns the underlying bit array; a copy for a mapped or off-heap filter.
+     * Throws UnsupportedOperationException if the filter has more bits than a BitSet can index.
      */
     public BitSet getBitArray() {
-        return this.bitArray;
+        return this.bitArray.toBitSet();
     }
 
     public void withHasher(QuickHash quickHash) {
@@ -91,20 +242,64 @@ public class BloomFilter {
     }
 
     /**
-     * Adds a new member to the member set
+     * Adds a new member to the member set, hashing its UTF-8 encoding without an intermediate copy
      * @param element The new member to add
      */
-    public void add(String element) {
+    public void add(CharSequence element) {
         verifyState(element);
 
-        long[] hashes = this.hash_k_times(element.getBytes(StandardCharsets.UTF_8), seeds);
+        setProbes(seed -> quickHash.hash(element, seed));
+    }
 
-        for (long hash: hashes) {
-            int index = getIndexFromHash(hash);
-            bitArray.set(index, true);
-//            System.out.printf("Hash: %d, Index: %d, Bit: %b%n",
-//                hash, index, bitArray.get(index));
-        }
+    /**
+     * Adds a new member given as a slice of a byte array, such as a UTF-8 encoded line
+     * @param element The array holding the new member
+     * @param offset The index of the member's first byte
+     * @param length The number of bytes in the member
+     */
+    public void add(byte[] element, int offset, int length) {
+        verifyState(element);
+
+        setProbes(seed -> quickHash.hash(element, offset, length, seed));
+    }
+
+    /**
+     * Adds a new member given as a slice of a buffer, on or off the heap, without copying it
+     * @param element The buffer holding the new member; its position is ignored and kept
+     * @param offset The absolute index of the member's first byte
+     * @param length The number of bytes in the member
+     */
+    public void add(ByteBuffer element, int offset, int length) {
+        verifyState(element);
+
+        setProbes(seed -> quickHash.hash(element, offset, length, seed));
+    }
+
+    /**
+     * Adds a new member given as the bytes of a memory segment, on or off the heap, without copying it
+     * @param element The new member to add
+     */
+    public void add(MemorySegment element) {
+        verifyState(element);
+
+        setProbes(seed -> quickHash.hash(element, seed));
+    }
+
+    /**
+     * Adds a numeric key, such as an ID, mixed by SplitMix64 instead of hashed as text, so nothing is formatted
+     * or allocated. Keys added this way are only found by contains(long), not by their decimal strings.
+     * @param key The new member to add
+     */
+    public void add(long key) {
+        setProbes(seed -> SplitMix64.hash(key, seed));
+    }
+
+    /**
+     * Adds a numeric key; the same member as the long of the same value
+     * @param key The new member to add
+     */
+    public void add(int key) {
+        add((long) key);
     }
 
     /**
@@ -113,30 +308,349 @@ public class BloomFilter {
      * @return true The element exists in the set
      *         false The element does not exist in set
      */
+    @Override
     public boolean contains(String element) {
+        return contains((CharSequence) element);
+    }
+
+    /**
+     * Queries the member set to check for an element, hashing its UTF-8 encoding without an intermediate copy
+     * @param element The element to query
+     * @return true The element exists in the set
+     *         false The element does not exist in set
+     */
+    public boolean contains(CharSequence element) {
+        verifyState(element);
+
+        return testProbes(seed -> quickHash.hash(element, seed));
+    }
+
+    /**
+     * Queries the member set for an element given as a slice of a byte array
+     * @param element The array holding the element to query
+     * @param offset The index of the element's first byte
+     * @param length The number of bytes in the element
+     * @return true The element exists in the set
+     *         false The element does not exist in set
+     */
+    @Override
+    public boolean contains(byte[] element, int offset, int length) {
+        verifyState(element);
+
+        return testProbes(seed -> quickHash.hash(element, offset, length, seed));
+    }
+
+    /**
+     * Queries the member set for an element given as a slice of a buffer, on or off the heap, without copying it
+     * @param element The buffer holding the element to query; its position is ignored and kept
+     * @param offset The absolute index of the element's first byte
+     * @param length The number of bytes in the element
+     * @return true The element exists in the set
+     *         false The element does not exist in set
+     */
+    public boolean contains(ByteBuffer element, int offset, int length) {
+        verifyState(element);
+
+        return testProbes(seed -> quickHash.hash(element, offset, length, seed));
+    }
+
+    /**
+     * Queries the member set for an element given as the bytes of a memory segment, without copying it
+     * @param element The element to query
+     * @return true The element exists in the set
+     *         false The element does not exist in set
+     */
+    public boolean contains(MemorySegment element) {
         verifyState(element);
 
-        long[] hashes = this.hash_k_times(element.getBytes(StandardCharsets.UTF_8), seeds);
+        return testProbes(seed -> quickHash.hash(element, seed));
+    }
 
-        for (long hash: hashes) {
-            int index = getIndexFromHash(hash);
-//            System.out.printf("Hash: %d, Index: %d, Bit: %b%n",
-//                hash, index, bitArray.get(index));
-            if (!bitArray.get(index)) {
-               return false;
+    /**
+     * Queries the member set for a numeric key added by add(long)
+     * @param key The key to query
+     * @return true The key exists in the set
+     *         false The key does not exist in set
+     */
+    public boolean contains(long key) {
+        return testProbes(seed -> SplitMix64.hash(key, seed));
+    }
+
+    /**
+     * Queries the member set for a numeric key; the same member as the long of the same value
+     * @param key The key to query
+     * @return true The key exists in the set
+     *         false The key does not exist in set
+     */
+    public boolean contains(int key) {
+        return contains((long) key);
+    }
+
+    /**
+     * Adds every element of a batch. Sets the same bits as calling add() for each element, but computes
+     * all probe indices of a batch before writing any of them, so the writes do not wait on hashing.
+     * @param elements The new members to add
+     */
+    public void addAll(String[] elements) {
+        long[] indices = new long[Math.min(elements.length, BATCH_SIZE) * seeds.length];
+
+        for (int from = 0; from < elements.length; from += BATCH_SIZE) {
+            int nIndices = probeIndices(elements, from, Math.min(from + BATCH_SIZE, elements.length), indices);
+
+            for (int i = 0; i < nIndices; i++) {
+                bitArray.set(indices[i]);
             }
         }
+    }
+
+    /**
+     * Queries the member set for every element of a batch. Computes all probe indices of a batch first,
+     * then reads the bits in a second pass whose loads do not depend on each other, so the CPU can have
+     * many cache misses in flight at once instead of paying for each in turn.
+     * @param elements The elements to query
+     * @param resultOut Bit i is set when elements[i] may exist in the set, and cleared otherwise
+     */
+    @Override
+    public void containsAll(String[] elements, BitSet resultOut) {
+        long[] indices = new long[Math.min(elements.length, BATCH_SIZE) * seeds.length];
+
+        for (int from = 0; from < elements.length; from += BATCH_SIZE) {
+            int to = Math.min(from + BATCH_SIZE, elements.length);
+            probeIndices(elements, from, to, indices);
+            testIndices(indices, from, to, resultOut);
+        }
+    }
 
-        return true;
+    /**
+     * Adds every numeric key of a batch, as addAll(String[]) does for strings
+     * @param keys The new members to add
+     */
+    public void addAll(long[] keys) {
+        long[] indices = new long[Math.min(keys.length, BATCH_SIZE) * seeds.length];
+
+        for (int from = 0; from < keys.length; from += BATCH_SIZE) {
+            int nIndices = probeIndices(keys, from, Math.min(from + BATCH_SIZE, keys.length), indices);
+
+            for (int i = 0; i < nIndices; i++) {
+                bitArray.set(indices[i]);
+            }
+        }
+    }
+
+    /**
+     * Queries the member set for every numeric key of a batch, as containsAll(String[], BitSet) does for strings
+     * @param keys The keys to query
+     * @param resultOut Bit i is set when keys[i] may exist in the set, and cleared otherwise
+     */
+    public void containsAll(long[] keys, BitSet resultOut) {
+        long[] indices = new long[Math.min(keys.length, BATCH_SIZE) * seeds.length];
+
+        for (int from = 0; from < keys.length; from += BATCH_SIZE) {
+            int to = Math.min(from + BATCH_SIZE, keys.length);
+            probeIndices(keys, from, to, indices);
+            testIndices(indices, from, to, resultOut);
+        }
+    }
+
+    /**
+     * Adds every member of another filter, so this filter holds the union of both member sets.
+     * The result is exactly the filter that adding both sets' elements would have built.
+     * @param other A filter of the same size, hashing and probing; not modified
+     * @throws IllegalArgumentException If the filters hash or probe differently
+     */
+    public void union(BloomFilter other) {
+        merge(other, false);
+    }
+
+    /**
+     * Keeps only the bits set in another filter too, so this filter answers for the intersection of both
+     * member sets. It may report more false positives than a filter built from the intersection alone.
+     * @param other A filter of the same size, hashing and probing; not modified
+     * @throws IllegalArgumentException If the filters hash or probe differently
+     */
+    public void intersect(BloomFilter other) {
+        merge(other, true);
+    }
+
+    /**
+     * Tells whether another filter, mapping elements onto bits alike, has exactly the same bits set and so
+     * answers every query alike. Compares the bit arrays in bulk, without copying mapped or off-heap ones.
+     */
+    public boolean hasSameBits(BloomFilter other) {
+        verifyCompatible(other);
+
+        MemorySegment bits = bitArray.segment();
+        MemorySegment otherBits = other.bitArray.segment();
+        if (null == bits && null == otherBits) {
+            return bitArray.toBitSet().equals(other.bitArray.toBitSet());
+        }
+        if (null == bits) {
+            bits = LittleEndianWords.asSegment(bitArray.toBitSet().toLongArray());
+        }
+        if (null == otherBits) {
+            otherBits = LittleEndianWords.asSegment(other.bitArray.toBitSet().toLongArray());
+        }
+
+        // payloads saved from a BitSet may be missing their trailing zero bytes
+        long common = Math.min(bits.byteSize(), otherBits.byteSize());
+        return MemorySegment.mismatch(bits, 0, common, otherBits, 0, common) == -1
+                && WordKernels.INSTANCE.cardinality(bits.asSlice(common)) == 0
+                && WordKernels.INSTANCE.cardinality(otherBits.asSlice(common)) == 0;
     }
 
     // ----------------------------- HELPERS -----------------------------
 
+    // the bits in the little-endian byte layout of compiled payloads, without copying them unless held in a BitSet
+    MemorySegment bitSegment() {
+        MemorySegment bits = bitArray.segment();
+        return null != bits ? bits : LittleEndianWords.asSegment(bitArray.toBitSet().toLongArray());
+    }
+
+    private void merge(BloomFilter other, boolean intersect) {
+        verifyCompatible(other);
+
+        MemorySegment target = bitArray.segment();
+        if (null == target) {
+            // backed by a BitSet, which combines in place
+            BitSet bits = bitArray.toBitSet();
+            if (intersect) {
+                bits.and(other.bitArray.toBitSet());
+            } else {
+                bits.or(other.bitArray.toBitSet());
+            }
+            return;
+        }
+
+        MemorySegment source = other.bitArray.segment();
+        if (null == source) {
+            source = LittleEndianWords.asSegment(other.bitArray.toBitSet().toLongArray());
+        }
+
+        if (intersect) {
+            BitwiseMerge.and(target, source);
+        } else {
+            BitwiseMerge.or(target, source);
+        }
+    }
+
+    private void verifyCompatible(BloomFilter other) {
+        if (null == other) {
+            throw new IllegalArgumentException("filter cannot be null");
+        }
+        if (nBits != other.nBits || indexReduction != other.indexReduction || probeStrategy != other.probeStrategy) {
+            throw new IllegalArgumentException("Filters map elements onto bits differently: " + nBits + " bits by "
+                    + indexReduction + " and " + probeStrategy + ", against " + other.nBits + " bits by "
+                    + other.indexReduction + " and " + other.probeStrategy);
+        }
+        if (!Arrays.equals(seeds, other.seeds) || quickHash.getClass() != other.quickHash.getClass()) {
+            throw new IllegalArgumentException("Filters hash elements differently");
+        }
+    }
+
+    // sets the bits probed for one element; hashWithSeed hashes the element with a given seed
+    private void setProbes(IntToLongFunction hashWithSeed) {
+        if (probeStrategy == ProbeStrategy.SEEDED) {
+            for (int seed: seeds) {
+                bitArray.set(getIndexFromHash(hashWithSeed.applyAsLong(seed)));
+            }
+            return;
+        }
+
+        long hash = hashWithSeed.applyAsLong(seeds[0]);
+        long step = ProbeStrategy.step(hash);
+
+        for (int i = 0; i < seeds.length; i++, hash += step) {
+            bitArray.set(getIndexFromHash(hash));
+        }
+    }
+
+    // checks the bits probed for one element, stopping at the first clear one
+    private boolean testProbes(IntToLongFunction hashWithSeed) {
+        if (probeStrategy == ProbeStrategy.SEEDED) {
+            for (int seed: seeds) {
+                if (!bitArray.get(getIndexFromHash(hashWithSeed.applyAsLong(seed)))) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        long hash = hashWithSeed.applyAsLong(seeds[0]);
+        long step = ProbeStrategy.step(hash);
+
+        for (int i = 0; i < seeds.length; i++, hash += step) {
+            if (!bitArray.get(getIndexFromHash(hash))) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // writes the indices probed for one element to indices, starting at at; returns the next free slot
+    private int writeProbes(IntToLongFunction hashWithSeed, long[] indices, int at) {
+        if (probeStrategy == ProbeStrategy.SEEDED) {
+            for (int seed: seeds) {
+                indices[at++] = getIndexFromHash(hashWithSeed.applyAsLong(seed));
+            }
+            return at;
+        }
+
+        long hash = hashWithSeed.applyAsLong(seeds[0]);
+        long step = ProbeStrategy.step(hash);
+
+        for (int i = 0; i < seeds.length; i++, hash += step) {
+            indices[at++] = getIndexFromHash(hash);
+        }
+
+        return at;
+    }
+
+    // writes the probe indices of elements[from, to) to indices, nHashes per element; returns how many
+    private int probeIndices(String[] elements, int from, int to, long[] indices) {
+        int at = 0;
+
+        for (int e = from; e < to; e++) {
+            String element = elements[e];
+            verifyState(element);
+
+            at = writeProbes(seed -> quickHash.hash(element, seed), indices, at);
+        }
+
+        return at;
+    }
+
+    // writes the probe indices of keys[from, to) to indices, nHashes per key; returns how many
+    private int probeIndices(long[] keys, int from, int to, long[] indices) {
+        int at = 0;
+
+        for (int e = from; e < to; e++) {
+            long key = keys[e];
+            at = writeProbes(seed -> SplitMix64.hash(key, seed), indices, at);
+        }
+
+        return at;
+    }
+
+    // reads the bits at the probe indices of elements [from, to), nHashes per element, into resultOut
+    private void testIndices(long[] indices, int from, int to, BitSet resultOut) {
+        int nHashes = seeds.length;
+
+        for (int e = from, at = 0; e < to; e++) {
+            // no early exit: a branch on each bit would serialize the loads again
+            boolean found = true;
+            for (int end = at + nHashes; at < end; at++) {
+                found &= bitArray.get(indices[at]);
+            }
+            resultOut.set(e, found);
+        }
+    }
+
     private boolean isValidDfp(double dfp) {
         return dfp >= DFP_MIN && dfp <= DFP_MAX;
     }
 
-    private void verifyState(String element) {
+    private void verifyState(Object element) {
         if (null == this.bitArray) {
             throw new IllegalStateException("Bloom filter not initialized. Call build() first.");
         }
@@ -146,19 +660,27 @@ public class BloomFilter {
         }
     }
 
-    private int getIndexFromHash(long hash) {
-        // Handle potential integer overflow and negative numbers
-        return Math.abs((int) ((hash & 0x7FFFFFFFFFFFFFFFL) % bitArray.size()));
+    private long getIndexFromHash(long hash) {
+        return indexReduction.index(hash, nBits);
     }
 
-    private long[] hash_k_times(byte[] data, int[] seeds) {
-        long[] hashValues = new long[seeds.length];
-
-        for (int i = 0; i < seeds.length; i++) {
-            hashValues[i] = this.quickHash.hash(data, seeds[i]);
+    private static long roundUpToPowerOfTwo(long nBits) {
+        if (nBits > 1L << 62) {
+            throw new IllegalArgumentException("Bit array too large to round up to a power of two");
         }
+        return nBits <= 1 ? 1 : Long.highestOneBit(nBits - 1) << 1;
+    }
 
-        return hashValues;
+    // Older headers stored the bit count truncated to 16 bits (sign-extended), and probed modulo the
+    // capacity of a BitSet(nBits): nBits rounded up to whole 64-bit words. The payload ends with the
+    // highest set bit, so the capacity is the smallest one covering the payload whose bit count
+    // agrees with the stored low 16 bits.
+    private static long recoverLegacyCapacity(long storedBits, long payloadBytes) {
+        long lowBits = storedBits & 0xFFFF;
+        long minCapacity = Math.max(((8L * payloadBytes + 63) / 64) * 64, 64);
+        long minBits = minCapacity - 63;
+        long nBits = minBits + ((lowBits - minBits) & 0xFFFF);
+        return ((nBits + 63) / 64) * 64;
     }
 
     /**
@@ -167,7 +689,7 @@ public class BloomFilter {
      * @param nElements The number of elements inserted
      * @return The suggested size of the bit array for the Bloom filter
      */
-    public static int calculateBitArraySize(double desiredFalsePositive, int nElements) {
+    public static long calculateBitArraySize(double desiredFalsePositive, long nElements) {
         // Input validation
         if (desiredFalsePositive <= 0 || desiredFalsePositive >= 1) {
             throw new IllegalArgumentException("False positive rate must be between 0 and 1");
@@ -177,7 +699,7 @@ public class BloomFilter {
         }
 
         double bitArraySize = - nElements * Math.log(desiredFalsePositive) / Math.pow(Math.log(2), 2);
-        return (int) Math.ceil(bitArraySize);
+        return (long) Math.ceil(bitArraySize);
     }
 
     /**
@@ -185,7 +707,7 @@ public class BloomFilter {
      * @param bitArraySize The size of the bit array for the Bloom filter
      * @param nElements The number of elements inserted
      */
-    public static int calculateNumOfHashFunctions(int bitArraySize, int nElements) {
+    public static int calculateNumOfHashFunctions(long bitArraySize, long nElements) {
         if (bitArraySize <= 0) {
             throw new IllegalArgumentException("Bit array size must be positive");
         }
@@ -206,14 +728,14 @@ public class BloomFilter {
      * @param nElements The number of elements inserted
      * @param DFP The desired false positive probability for a bloom filter
      */
-    public static void outputAppRequirements(int nElements, double DFP) {
+    public static void outputAppRequirements(long nElements, double DFP) {
 
         double bitsPerByte = 8.0;     // bits per Byte
         double bytesPerKb = 1024.0; // bytes per Kilobyte
 
-        int bitsRequired = calculateBitArraySize(DFP, nElements);
-        int bytesRequired = (int) Math.ceil(bitsRequired / bitsPerByte);
-        int mbRequired = (int) Math.ceil(bytesRequired / bytesPerKb);
+        long bitsRequired = calculateBitArraySize(DFP, nElements);
+        long bytesRequired = (long) Math.ceil(bitsRequired / bitsPerByte);
+        long mbRequired = (long) Math.ceil(bytesRequired / bytesPerKb);
 
         int nHashFunctions = calculateNumOfHashFunctions(bitsRequired, nElements);
 
@@ -1,19 +1,137 @@
 package learn.utils;
 
+import learn.hash.HashAlgorithm;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
 import java.nio.ByteBuffer;
 import java.nio.ByteOrder;
 import java.nio.charset.StandardCharsets;
+import java.util.zip.CRC32C;
 
 public final class BuildInfo {
     public static final String DEFAULT_IDENTIFIER = "BFSC";
 
+    /**
+     * How the compiled filter lays out its bits, tagged by the identifier that opens the header
+     */
+    public enum Layout {
+        STANDARD(DEFAULT_IDENTIFIER),
+        BLOCKED("BFBK"),
+        SCALABLE("BFSG"),
+        COUNTING("BFCT"),
+        FUSE("BFFU"),
+        PARTITIONED("BFPT");
+
+        private final String identifier;
+
+        Layout(String identifier) {
+            this.identifier = identifier;
+        }
+
+        public String getIdentifier() {
+            return identifier;
+        }
+
+        static Layout fromIdentifier(String identifier) {
+            for (Layout layout: values()) {
+                if (layout.identifier.equals(identifier)) {
+                    return layout;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * How the payload after the header is encoded on disk, tagged by an ID saved in the header
+     */
+    public enum Encoding {
+        RAW((short) 0),
+        CONTAINERS((short) 1);
+
+        private final short id;
+
+        Encoding(short id) {
+            this.id = id;
+        }
+
+        public short getId() {
+            return id;
+        }
+
+        static Encoding fromId(short id) {
+            for (Encoding encoding: values()) {
+                if (encoding.id == id) {
+                    return encoding;
+                }
+            }
+            return null;
+        }
+    }
+
+    /**
+     * How the seeds of a filter's probes are derived from its number of hash functions, tagged by an ID saved
+     * in the header, so no seeds file is needed to read it back
+     */
+    public enum SeedDerivation {
+        // seeds 1 to k: one full hash per seed when SEEDED, only the first seeds double hashing
+        SEQUENTIAL((short) 0);
+
+        private final short id;
+
+        SeedDerivation(short id) {
+            this.id = id;
+        }
+
+        public short getId() {
+            return id;
+        }
+
+        static SeedDerivation fromId(short id) {
+            for (SeedDerivation derivation: values()) {
+                if (derivation.id == id) {
+                    return derivation;
+                }
+            }
+            return null;
+        }
+    }
+
+    // Version 1: one full hash per seed, mapped by modulo over the capacity of the saved BitSet, in a 12-byte header;
+    // version 2: double hashing over a stored 64-bit bit count, mapped by fast range or power-of-two mask,
+    // with the hash algorithm, element count, payload encoding, desired false positive probability,
+    // seed derivation and CRC32C of the payload recorded in a 42-byte header
+    public static final short VERSION_SEEDED = 1;
+    public static final short CURRENT_VERSION = 2;
+
+    private static final int SEEDED_HEADER_BYTES = 12;
+    private static final int CURRENT_HEADER_BYTES = 42;
+
+    private static final int CHECKSUM_SLICE_BYTES = 1 << 20;
+
+    // identifier and version, enough to tell how long the rest of the header is
+    public static final int PREFIX_BYTE_SIZE = DEFAULT_IDENTIFIER.length() + Short.BYTES;
+
     // IMPLEMENTATION-DEPENDENT
+    private Layout layout = Layout.STANDARD;
     private short version;
     private short nHashFunctions;
-    private int bloomFilterBitsRequired;
+    private long bloomFilterBitsRequired;
+    private HashAlgorithm hashAlgorithm = HashAlgorithm.FNV1A64;
+    private long nElements;
+    private Encoding encoding = Encoding.RAW;
+    private double dfp = BloomFilter.DFP_DEFAULT;
+    private SeedDerivation seedDerivation = SeedDerivation.SEQUENTIAL;
+    private int payloadChecksum;
 
     public BuildInfo() {}
 
+    public BuildInfo setLayout(Layout layout) {
+        this.layout = layout;
+        return this;
+    }
+
     public BuildInfo setVersion(short version) {
         this.version = version;
         return this;
@@ -24,11 +142,45 @@ public final class BuildInfo {
         return this;
     }
 
-    public BuildInfo setBloomFilterBitsRequired(int bloomFilterBitsRequired) {
+    public BuildInfo setBloomFilterBitsRequired(long bloomFilterBitsRequired) {
         this.bloomFilterBitsRequired = bloomFilterBitsRequired;
         return this;
     }
 
+    public BuildInfo setHashAlgorithm(HashAlgorithm hashAlgorithm) {
+        this.hashAlgorithm = hashAlgorithm;
+        return this;
+    }
+
+    public BuildInfo setElementCount(long nElements) {
+        this.nElements = nElements;
+        return this;
+    }
+
+    public BuildInfo setEncoding(Encoding encoding) {
+        this.encoding = encoding;
+        return this;
+    }
+
+    public BuildInfo setDFP(double dfp) {
+        this.dfp = dfp;
+        return this;
+    }
+
+    public BuildInfo setSeedDerivation(SeedDerivation seedDerivation) {
+        this.seedDerivation = seedDerivation;
+        return this;
+    }
+
+    public BuildInfo setPayloadChecksum(int payloadChecksum) {
+        this.payloadChecksum = payloadChecksum;
+        return this;
+    }
+
+    public Layout getLayout() {
+        return layout;
+    }
+
     public short getNHashFunctions() {
         return nHashFunctions;
     }
@@ -37,32 +189,166 @@ public final class BuildInfo {
         return version;
     }
 
-    public int getBloomFilterBitsRequired() {
+    public long getBloomFilterBitsRequired() {
         return bloomFilterBitsRequired;
     }
 
+    public HashAlgorithm getHashAlgorithm() {
+        return hashAlgorithm;
+    }
+
+    /**
+     * Returns the number of elements added to the filter, counting repeats; 0 if the version that built it
+     * did not record it
+     */
+    public long getElementCount() {
+        return nElements;
+    }
+
+    /**
+     * Returns how the payload is encoded on disk; RAW if the version that built it could only save it raw
+     */
+    public Encoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Returns the desired false positive probability the filter was sized for; DFP_DEFAULT if the version
+     * that built it did not record it
+     */
+    public double getDFP() {
+        return dfp;
+    }
+
+    public SeedDerivation getSeedDerivation() {
+        return seedDerivation;
+    }
+
+    /**
+     * Returns the CRC32C of the payload as stored after the header; only meaningful if hasPayloadChecksum()
+     */
+    public int getPayloadChecksum() {
+        return payloadChecksum;
+    }
+
+    /**
+     * Returns whether the version that built the filter recorded a checksum of its payload
+     */
+    public boolean hasPayloadChecksum() {
+        return version >= CURRENT_VERSION;
+    }
+
+    /**
+     * Checks that the filter described by another header can be merged bit by bit with this one:
+     * the same layout, of one that maps every element onto fixed bits, and the same size, hashing and probing
+     * @param other The header of the filter to merge with
+     * @throws IllegalArgumentException If the filters cannot be merged, naming the first difference
+     */
+    public void checkMergeable(BuildInfo other) {
+        if (layout != Layout.STANDARD && layout != Layout.BLOCKED) {
+            throw new IllegalArgumentException("Only standard and blocked filters can be merged, not " + layout);
+        }
+        if (version < CURRENT_VERSION || other.version < CURRENT_VERSION) {
+            throw new IllegalArgumentException("Filters before version " + CURRENT_VERSION
+                    + " map elements by the length of their file, and cannot be merged; build them again instead");
+        }
+        if (layout != other.layout) {
+            throw new IllegalArgumentException("Cannot merge a " + layout + " filter with a " + other.layout + " one");
+        }
+        if (bloomFilterBitsRequired != other.bloomFilterBitsRequired) {
+            throw new IllegalArgumentException("Cannot merge filters of " + bloomFilterBitsRequired + " and "
+                    + other.bloomFilterBitsRequired + " bits");
+        }
+        if (nHashFunctions != other.nHashFunctions || hashAlgorithm != other.hashAlgorithm
+                || seedDerivation != other.seedDerivation || getProbeStrategy() != other.getProbeStrategy()) {
+            throw new IllegalArgumentException("Cannot merge filters that hash differently: " + nHashFunctions + " "
+                    + hashAlgorithm + " probes against " + other.nHashFunctions + " " + other.hashAlgorithm + " probes");
+        }
+    }
+
+    /**
+     * Returns the CRC32C of a payload, as saved in the header
+     * @param payload The payload as stored after the header, of any size
+     */
+    public static int payloadChecksum(MemorySegment payload) {
+        CRC32C crc = new CRC32C();
+
+        // checksums a copy of each slice, since heap segments over long[] and segments of shared arenas
+        // have no ByteBuffer view that CRC32C accepts
+        byte[] slice = new byte[(int) Math.min(CHECKSUM_SLICE_BYTES, payload.byteSize())];
+        for (long offset = 0; offset < payload.byteSize(); offset += slice.length) {
+            int length = (int) Math.min(slice.length, payload.byteSize() - offset);
+            MemorySegment.copy(payload, ValueLayout.JAVA_BYTE, offset, slice, 0, length);
+            crc.update(slice, 0, length);
+        }
+
+        return (int) crc.getValue();
+    }
+
+    /**
+     * Returns how the compiled filter derived its bit indices, based on the version that built it
+     */
+    public ProbeStrategy getProbeStrategy() {
+        return version >= CURRENT_VERSION ? ProbeStrategy.DOUBLE_HASHING : ProbeStrategy.SEEDED;
+    }
+
+    /**
+     * Returns the size of a header written by the current version
+     */
     public static int headerByteSize() {
-        return BuildInfo.DEFAULT_IDENTIFIER.length() + 2 * Short.BYTES + Integer.BYTES;
+        return headerByteSize(CURRENT_VERSION);
+    }
+
+    /**
+     * Returns the size of a header written by some version
+     * @param version The version that wrote the header
+     */
+    public static int headerByteSize(short version) {
+        return version >= CURRENT_VERSION ? CURRENT_HEADER_BYTES : SEEDED_HEADER_BYTES;
+    }
+
+    /**
+     * Returns the size of the header that begins with some prefix
+     * @param prefix At least the first PREFIX_BYTE_SIZE bytes of the header
+     */
+    public static int headerByteSize(byte[] prefix) {
+        return headerByteSize(ByteBuffer.wrap(prefix).getShort(DEFAULT_IDENTIFIER.length()));
     }
 
     /**
      * Generates a sequence of bytes encoded with the build info regarding this bloom filter implementation.
      * The sequence is as follows:
-     * bytes 1-4: Program Identifier
+     * bytes 1-4: Program Identifier, one per layout
      * bytes 5-6: Version Number
      * bytes 7-8: Number of Hash Functions Used by Filter
-     * bytes 9-12: Number of Bits Required for Filter
+     * bytes 9-16: Number of Bits Required for Filter (bytes 9-12, and nothing after, in version 1)
+     * bytes 17-18: Hash Algorithm ID
+     * bytes 19-26: Number of Elements Added
+     * bytes 27-28: Payload Encoding ID
+     * bytes 29-36: Desired False Positive Probability
+     * bytes 37-38: Seed Derivation ID
+     * bytes 39-42: CRC32C of the Payload as Stored
      * @return byte[] byte-encoded header
      */
     public byte[] generateByteHeader() {
-        ByteBuffer header = ByteBuffer.allocate(BuildInfo.headerByteSize());
+        ByteBuffer header = ByteBuffer.allocate(BuildInfo.headerByteSize(version));
 
         // write
-        header.put(BuildInfo.DEFAULT_IDENTIFIER.getBytes(StandardCharsets.US_ASCII));
+        header.put(layout.getIdentifier().getBytes(StandardCharsets.US_ASCII));
         header.putShort(version);
         header.putShort(nHashFunctions);
-        header.putInt(bloomFilterBitsRequired);
+        if (version < CURRENT_VERSION) {
+            header.putInt((int) bloomFilterBitsRequired);
+            return header.array();
+        }
 
+        header.putLong(bloomFilterBitsRequired);
+        header.putShort(hashAlgorithm.getId());
+        header.putLong(nElements);
+        header.putShort(encoding.getId());
+        header.putDouble(dfp);
+        header.putShort(seedDerivation.getId());
+        header.putInt(payloadChecksum);
 
         return header.array();
     }
@@ -71,7 +357,8 @@ public final class BuildInfo {
      * Returns a BuildInfo containing the data for a bloom filter from a byte header
      * @param data The byte header to read
      * @return BuildInfo If read is successful
-     *         null If first four bytes don't match the program identifier (BuildInfo.DEFAULT_IDENTIFIER)
+     *         null If first four bytes don't match the identifier of a known layout,
+     *              or the filter was built with an unknown hash algorithm, encoding or seed derivation
      */
     public static BuildInfo readBuildInfo(byte[] data) {
         BuildInfo header = new BuildInfo();
@@ -87,15 +374,31 @@ public final class BuildInfo {
 
         short version = buffer.getShort();
         short nHashes = buffer.getShort();
-        int bitsRequired = buffer.getInt();
+        // version 1 filters were all hashed with FNV-1a, saved raw, and record nothing after their bit count
+        boolean seeded = version < CURRENT_VERSION;
+        long bitsRequired = seeded ? buffer.getInt() : buffer.getLong();
+        HashAlgorithm hashAlgorithm = seeded ? HashAlgorithm.FNV1A64 : HashAlgorithm.fromId(buffer.getShort());
+        long nElements = seeded ? 0 : buffer.getLong();
+        Encoding encoding = seeded ? Encoding.RAW : Encoding.fromId(buffer.getShort());
+        double dfp = seeded ? BloomFilter.DFP_DEFAULT : buffer.getDouble();
+        SeedDerivation seedDerivation = seeded ? SeedDerivation.SEQUENTIAL : SeedDerivation.fromId(buffer.getShort());
+        int payloadChecksum = seeded ? 0 : buffer.getInt();
 
-        if (!iden.equals(BuildInfo.DEFAULT_IDENTIFIER)) {
+        Layout layout = Layout.fromIdentifier(iden);
+        if (null == layout || null == hashAlgorithm || null == encoding || null == seedDerivation) {
             return null;
         }
 
+        header.setLayout(layout);
         header.setVersion(version);
         header.setHashFunctions(nHashes);
         header.setBloomFilterBitsRequired(bitsRequired);
+        header.setHashAlgorithm(hashAlgorithm);
+        header.setElementCount(nElements);
+        header.setEncoding(encoding);
+        header.setDFP(dfp);
+        header.setSeedDerivation(seedDerivation);
+        header.setPayloadChecksum(payloadChecksum);
 
         return header;
     }
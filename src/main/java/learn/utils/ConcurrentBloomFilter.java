@@ -0,0 +1,274 @@
+package learn.utils;
+
+import learn.hash.FNV1A64;
+import learn.hash.QuickHash;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.VarHandle;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A thread-safe Bloom filter that can be queried while other threads are still adding to it.
+ * Bits live in native words outside the GC heap, updated with an atomic fetch-or, so add() never retries or
+ * blocks and contains() never takes a lock. The hasher and probe count are fixed at construction.
+ *
+ * Uses the same sizing, hashing and index mapping as BloomFilter, and the same compiled layout.
+ * The words are indexed by long, so the bit array may be larger than any Java array.
+ */
+public class ConcurrentBloomFilter implements MembershipFilter {
+    private static final VarHandle WORDS = wordHandle();
+    private static final int SEED = 1;
+    private static final boolean LITTLE_ENDIAN_HOST = ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN;
+
+    private final MemorySegment words;
+    private final long nBits;
+    private final int nHashes;
+    private final double DFP; // desired false positive probability
+    private final QuickHash quickHash;
+    private final IndexReduction indexReduction;
+
+    private ConcurrentBloomFilter(double dfp, MemorySegment words, long nBits, int nHashes, QuickHash quickHash) {
+        this.DFP = dfp;
+        this.words = words;
+        this.nBits = nBits;
+        this.nHashes = nHashes;
+        this.quickHash = quickHash;
+        this.indexReduction = IndexReduction.forBitCount(nBits);
+    }
+
+    /**
+     * Build a new concurrent Bloom filter for some number of elements
+     * @param dfp The desired false positive probability of the filter
+     * @param nElements The number of expected elements added to the filter
+     * @return The concurrent Bloom filter
+     */
+    public static ConcurrentBloomFilter build(double dfp, long nElements) {
+        return build(dfp, nElements, false, FNV1A64.INSTANCE);
+    }
+
+    /**
+     * Build a new concurrent Bloom filter for some number of elements
+     * @param dfp The desired false positive probability of the filter
+     * @param nElements The number of expected elements added to the filter
+     * @param roundToPowerOfTwo Round the bit array up to a power of two, so indices are mapped with a mask
+     * @param quickHash The hashing algorithm, fixed for the life of the filter
+     * @return The concurrent Bloom filter
+     */
+    public static ConcurrentBloomFilter build(double dfp, long nElements, boolean roundToPowerOfTwo,
+                                              QuickHash quickHash) {
+        return build(dfp, nElements, roundToPowerOfTwo, quickHash, Arena.ofAuto());
+    }
+
+    /**
+     * Build a new concurrent Bloom filter for some number of elements, with its bits allocated by an arena
+     * @param dfp The desired false positive probability of the filter
+     * @param nElements The number of expected elements added to the filter
+     * @param roundToPowerOfTwo Round the bit array up to a power of two, so indices are mapped with a mask
+     * @param quickHash The hashing algorithm, fixed for the life of the filter
+     * @param arena Allocates the bit array, which is released when the arena closes; must allow access from
+     *              every thread that adds or queries
+     * @return The concurrent Bloom filter
+     */
+    public static ConcurrentBloomFilter build(double dfp, long nElements, boolean roundToPowerOfTwo,
+                                              QuickHash quickHash, Arena arena) {
+        if (null == quickHash) {
+            throw new IllegalArgumentException("hasher cannot be null");
+        }
+
+        long nBits = BloomFilter.calculateBitArraySize(dfp, nElements);
+        int nHashes = BloomFilter.calculateNumOfHashFunctions(nBits, nElements);
+
+        if (roundToPowerOfTwo) {
+            nBits = nBits <= 1 ? 1 : Long.highestOneBit(nBits - 1) << 1;
+        }
+
+        // allocated memory is zeroed
+        return new ConcurrentBloomFilter(dfp, arena.allocate(wordsFor(nBits) * Long.BYTES, Long.BYTES), nBits,
+                nHashes, quickHash);
+    }
+
+    /**
+     * Build a concurrent Bloom filter using a previously compiled standard filter and the header it was saved with
+     * @param data The bit array of a compiled filter
+     * @param header The build info saved with the compiled filter
+     * @return The concurrent Bloom filter
+     */
+    public static ConcurrentBloomFilter build(byte[] data, BuildInfo header) {
+        if (header.getLayout() != BuildInfo.Layout.STANDARD || header.getVersion() < BuildInfo.CURRENT_VERSION) {
+            throw new IllegalArgumentException("Compiled filter predates double hashing with a stored bit count; rebuild it");
+        }
+
+        long nBits = header.getBloomFilterBitsRequired();
+        MemorySegment words = Arena.ofAuto().allocate(wordsFor(nBits) * Long.BYTES, Long.BYTES);
+
+        // the payload is BitSet.toByteArray(), so trailing zero bytes may be missing
+        MemorySegment.copy(MemorySegment.ofArray(data), 0, words, 0, Math.min(data.length, words.byteSize()));
+        reverseWordsUnlessLittleEndian(words);
+
+        return new ConcurrentBloomFilter(header.getDFP(), words, nBits,
+                Math.max(header.getNHashFunctions(), 2), header.getHashAlgorithm().getHasher());
+    }
+
+    /**
+     * Returns the desired false positive probability
+     */
+    public double getDFP() {
+        return DFP;
+    }
+
+    /**
+     * Returns the number of probes per element
+     */
+    public int getNumOfHashFunctions() {
+        return nHashes;
+    }
+
+    /**
+     * Returns the number of bits that indices are mapped onto
+     */
+    public long getBitCount() {
+        return nBits;
+    }
+
+    /**
+     * Returns a snapshot of the bit array as little-endian bytes, the layout of a compiled standard filter.
+     * Adds running concurrently may or may not be included.
+     */
+    public byte[] toByteArray() {
+        if (words.byteSize() > Integer.MAX_VALUE - 8) {
+            throw new UnsupportedOperationException("Bit array too large for a byte array; use toMemorySegment()");
+        }
+
+        ByteBuffer out = ByteBuffer.allocate((int) words.byteSize()).order(ByteOrder.LITTLE_ENDIAN);
+        for (long i = 0; i < words.byteSize() / Long.BYTES; i++) {
+            out.putLong((long) WORDS.getOpaque(words, i));
+        }
+        return out.array();
+    }
+
+    /**
+     * Returns the bit array as little-endian bytes, without the 2 GB limit of toByteArray().
+     * A live view on little-endian hosts, so only stable once adds have finished.
+     */
+    public MemorySegment toMemorySegment() {
+        if (LITTLE_ENDIAN_HOST) {
+            return words.asReadOnly();
+        }
+
+        MemorySegment copy = Arena.ofAuto().allocate(words.byteSize(), Long.BYTES);
+        MemorySegment.copy(words, 0, copy, 0, words.byteSize());
+        reverseWordsUnlessLittleEndian(copy);
+        return copy;
+    }
+
+    /**
+     * Adds a new member to the member set. Safe to call from any number of threads.
+     * @param element The new member to add
+     */
+    public void add(String element) {
+        verifyState(element);
+
+        addHash(quickHash.hash(element, SEED));
+    }
+
+    /**
+     * Adds a new member given as raw bytes, such as a UTF-8 encoded line, without decoding it.
+     * Matches add(String) for the UTF-8 encoding of the same element. Safe to call from any number of threads.
+     * @param element The array holding the new member
+     * @param offset The index of the member's first byte
+     * @param length The number of bytes in the member
+     */
+    public void add(byte[] element, int offset, int length) {
+        verifyState(element);
+
+        addHash(quickHash.hash(element, offset, length, SEED));
+    }
+
+    private void addHash(long hash) {
+        long step = ProbeStrategy.step(hash);
+
+        for (int i = 0; i < nHashes; i++, hash += step) {
+            long index = indexReduction.index(hash, nBits);
+            long word = index >>> 6;
+            long mask = 1L << index;
+
+            // skip the atomic write when the bit is already set, which is most of them in a full filter
+            if (((long) WORDS.getOpaque(words, word) & mask) == 0) {
+                WORDS.getAndBitwiseOr(words, word, mask);
+            }
+        }
+    }
+
+    /**
+     * Queries the member set to check for an element. Never blocks; sees every add that completed before it.
+     * @param element The element to query
+     * @return true The element exists in the set
+     *         false The element does not exist in set
+     */
+    @Override
+    public boolean contains(String element) {
+        verifyState(element);
+
+        return containsHash(quickHash.hash(element, SEED));
+    }
+
+    /**
+     * Queries the member set for an element given as raw bytes, without decoding it
+     * @param element The array holding the element to query
+     * @param offset The index of the element's first byte
+     * @param length The number of bytes in the element
+     * @return true The element exists in the set
+     *         false The element does not exist in set
+     */
+    @Override
+    public boolean contains(byte[] element, int offset, int length) {
+        verifyState(element);
+
+        return containsHash(quickHash.hash(element, offset, length, SEED));
+    }
+
+    private boolean containsHash(long hash) {
+        long step = ProbeStrategy.step(hash);
+
+        for (int i = 0; i < nHashes; i++, hash += step) {
+            long index = indexReduction.index(hash, nBits);
+            if (((long) WORDS.getAcquire(words, index >>> 6) & (1L << index)) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    // ----------------------------- HELPERS -----------------------------
+
+    private void verifyState(Object element) {
+        if (null == element) {
+            throw new IllegalArgumentException("element cannot be null");
+        }
+    }
+
+    private static long wordsFor(long nBits) {
+        return (nBits + 63) / 64;
+    }
+
+    // the words as longs by index; JDK 22 and later add a base offset coordinate, fixed here at zero
+    private static VarHandle wordHandle() {
+        VarHandle handle = ValueLayout.JAVA_LONG.arrayElementVarHandle();
+        return handle.coordinateTypes().size() == 3 ? MethodHandles.insertCoordinates(handle, 1, 0L) : handle;
+    }
+
+    // converts between native words and the little-endian words of compiled payloads, in place
+    private static void reverseWordsUnlessLittleEndian(MemorySegment words) {
+        if (LITTLE_ENDIAN_HOST) {
+            return;
+        }
+        for (long offset = 0; offset < words.byteSize(); offset += Long.BYTES) {
+            words.set(ValueLayout.JAVA_LONG, offset, Long.reverseBytes(words.get(ValueLayout.JAVA_LONG, offset)));
+        }
+    }
+}
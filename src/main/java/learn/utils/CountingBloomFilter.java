@@ -0,0 +1,307 @@
+package learn.utils;
+
+import learn.hash.FNV1A64;
+import learn.hash.QuickHash;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * A Bloom filter that can remove members, with a 4-bit counter in place of each bit.
+ * Counters are packed sixteen to a long and saturate at 15; a saturated counter is never
+ * decremented again, since its true count is lost, so removing can only ever leave false positives.
+ *
+ * Uses the same sizing, hashing and index mapping as BloomFilter, so toByteArray() exports the bit array
+ * a standard filter would have compiled for the members still present, four times smaller. Not thread-safe.
+ */
+public class CountingBloomFilter implements MembershipFilter {
+    private static final int COUNTER_BITS = 4;
+    private static final int COUNTERS_PER_WORD = Long.SIZE / COUNTER_BITS;
+    private static final long COUNTER_MASK = (1L << COUNTER_BITS) - 1;
+    private static final long MAX_COUNT = COUNTER_MASK;
+    private static final int SEED = 1;
+
+    private final long[] counters;
+    private final long nCounters;
+    private final int nHashes;
+    private final double DFP; // desired false positive probability
+    private final QuickHash quickHash;
+    private final IndexReduction indexReduction;
+
+    private CountingBloomFilter(double dfp, long[] counters, long nCounters, int nHashes, QuickHash quickHash) {
+        this.DFP = dfp;
+        this.counters = counters;
+        this.nCounters = nCounters;
+        this.nHashes = nHashes;
+        this.quickHash = quickHash;
+        this.indexReduction = IndexReduction.forBitCount(nCounters);
+    }
+
+    /**
+     * Build a new counting Bloom filter for some number of elements
+     * @param dfp The desired false positive probability of the filter
+     * @param nElements The number of expected elements added to the filter
+     * @return The counting Bloom filter
+     */
+    public static CountingBloomFilter build(double dfp, long nElements) {
+        return build(dfp, nElements, false, FNV1A64.INSTANCE);
+    }
+
+    /**
+     * Build a new counting Bloom filter for some number of elements
+     * @param dfp The desired false positive probability of the filter
+     * @param nElements The number of expected elements added to the filter
+     * @param roundToPowerOfTwo Round the number of counters up to a power of two, so indices are mapped with a mask
+     * @param quickHash The hashing algorithm, fixed for the life of the filter
+     * @return The counting Bloom filter
+     */
+    public static CountingBloomFilter build(double dfp, long nElements, boolean roundToPowerOfTwo,
+                                            QuickHash quickHash) {
+        if (null == quickHash) {
+            throw new IllegalArgumentException("hasher cannot be null");
+        }
+
+        long nCounters = BloomFilter.calculateBitArraySize(dfp, nElements);
+        int nHashes = BloomFilter.calculateNumOfHashFunctions(nCounters, nElements);
+
+        if (roundToPowerOfTwo) {
+            nCounters = nCounters <= 1 ? 1 : Long.highestOneBit(nCounters - 1) << 1;
+        }
+
+        return new CountingBloomFilter(dfp, new long[wordsFor(nCounters)], nCounters, nHashes, quickHash);
+    }
+
+    /**
+     * Build a counting Bloom filter using previously compiled counters and the header they were saved with
+     * @param data The counters of a compiled filter, as written by toCounterSegment()
+     * @param header The build info saved with the compiled filter
+     * @return The counting Bloom filter
+     */
+    public static CountingBloomFilter build(byte[] data, BuildInfo header) {
+        if (header.getLayout() != BuildInfo.Layout.COUNTING) {
+            throw new IllegalArgumentException("Not a counting filter: " + header.getLayout());
+        }
+
+        long nCounters = header.getBloomFilterBitsRequired();
+        long[] counters = new long[wordsFor(nCounters)];
+        if (data.length < counters.length * Long.BYTES) {
+            throw new IllegalArgumentException("Invalid counting filter: truncated counters");
+        }
+
+        ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN).asLongBuffer().get(counters);
+
+        return new CountingBloomFilter(header.getDFP(), counters, nCounters,
+                Math.max(header.getNHashFunctions(), 2), header.getHashAlgorithm().getHasher());
+    }
+
+    /**
+     * Returns the desired false positive probability
+     */
+    public double getDFP() {
+        return DFP;
+    }
+
+    /**
+     * Returns the number of probes per element
+     */
+    public int getNumOfHashFunctions() {
+        return nHashes;
+    }
+
+    /**
+     * Returns the number of counters, which is the number of bits of the exported bit array
+     */
+    public long getBitCount() {
+        return nCounters;
+    }
+
+    /**
+     * Returns the counters as little-endian words, the layout read by build(byte[], BuildInfo)
+     */
+    public MemorySegment toCounterSegment() {
+        return LittleEndianWords.asSegment(counters);
+    }
+
+    /**
+     * Returns one bit per counter, set where the counter is non-zero, as little-endian bytes:
+     * the layout of a compiled standard filter, read by BloomFilter.build(byte[], BuildInfo)
+     */
+    public byte[] toByteArray() {
+        if (nCounters > (long) Integer.MAX_VALUE * Byte.SIZE) {
+            throw new UnsupportedOperationException("Bit array too large for a byte array; use toMemorySegment()");
+        }
+
+        long[] bits = exportedWords();
+        ByteBuffer out = ByteBuffer.allocate(bits.length * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        out.asLongBuffer().put(bits);
+        return out.array();
+    }
+
+    /**
+     * Returns the bit array of toByteArray(), without its 2 GB limit
+     */
+    public MemorySegment toMemorySegment() {
+        return LittleEndianWords.asSegment(exportedWords());
+    }
+
+    /**
+     * Returns a read-only deployment of this filter: a standard Bloom filter over the exported bit array
+     */
+    public BloomFilter toBloomFilter() {
+        BuildInfo header = new BuildInfo()
+                .setVersion(BuildInfo.CURRENT_VERSION)
+                .setDFP(DFP)
+                .setHashFunctions((short) nHashes)
+                .setBloomFilterBitsRequired(nCounters);
+
+        BloomFilter filter = BloomFilter.build(toByteArray(), header);
+        filter.withHasher(quickHash);
+        return filter;
+    }
+
+    /**
+     * Adds a new member to the member set
+     * @param element The new member to add
+     */
+    public void add(String element) {
+        verifyState(element);
+
+        addHash(quickHash.hash(element, SEED));
+    }
+
+    /**
+     * Adds a new member given as a slice of a byte array, such as a UTF-8 encoded line
+     * @param element The array holding the new member
+     * @param offset The index of the member's first byte
+     * @param length The number of bytes in the member
+     */
+    public void add(byte[] element, int offset, int length) {
+        verifyState(element);
+
+        addHash(quickHash.hash(element, offset, length, SEED));
+    }
+
+    private void addHash(long hash) {
+        long step = ProbeStrategy.step(hash);
+
+        for (int i = 0; i < nHashes; i++, hash += step) {
+            long index = indexReduction.index(hash, nCounters);
+            long count = get(index);
+            if (count < MAX_COUNT) {
+                set(index, count + 1);
+            }
+        }
+    }
+
+    /**
+     * Removes a member from the member set. Elements that were never added must not be removed:
+     * one that only appears present through a false positive would take other members' counts with it.
+     * @param element The member to remove
+     * @return true The element was present, and its counters were decremented
+     *         false The element was not present, and nothing changed
+     */
+    public boolean remove(String element) {
+        if (!contains(element)) {
+            return false;
+        }
+
+        long hash = quickHash.hash(element, SEED);
+        long step = ProbeStrategy.step(hash);
+
+        for (int i = 0; i < nHashes; i++, hash += step) {
+            long index = indexReduction.index(hash, nCounters);
+            long count = get(index);
+            // a saturated counter may hold more than it shows, so it stays put
+            if (count > 0 && count < MAX_COUNT) {
+                set(index, count - 1);
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Queries the member set to check for an element
+     * @param element The element to query
+     * @return true The element exists in the set
+     *         false The element does not exist in set
+     */
+    @Override
+    public boolean contains(String element) {
+        verifyState(element);
+
+        return containsHash(quickHash.hash(element, SEED));
+    }
+
+    /**
+     * Queries the member set for an element given as a slice of a byte array
+     * @param element The array holding the element to query
+     * @param offset The index of the element's first byte
+     * @param length The number of bytes in the element
+     * @return true The element exists in the set
+     *         false The element does not exist in set
+     */
+    @Override
+    public boolean contains(byte[] element, int offset, int length) {
+        verifyState(element);
+
+        return containsHash(quickHash.hash(element, offset, length, SEED));
+    }
+
+    // ----------------------------- HELPERS -----------------------------
+
+    private boolean containsHash(long hash) {
+        long step = ProbeStrategy.step(hash);
+
+        for (int i = 0; i < nHashes; i++, hash += step) {
+            if (get(indexReduction.index(hash, nCounters)) == 0) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    private long get(long index) {
+        int shift = (int) (index & (COUNTERS_PER_WORD - 1)) * COUNTER_BITS;
+        return (counters[(int) (index / COUNTERS_PER_WORD)] >>> shift) & COUNTER_MASK;
+    }
+
+    private void set(long index, long count) {
+        int word = (int) (index / COUNTERS_PER_WORD);
+        int shift = (int) (index & (COUNTERS_PER_WORD - 1)) * COUNTER_BITS;
+        counters[word] = (counters[word] & ~(COUNTER_MASK << shift)) | (count << shift);
+    }
+
+    private void verifyState(Object element) {
+        if (null == element) {
+            throw new IllegalArgumentException("element cannot be null");
+        }
+    }
+
+    // one bit per counter, set where the counter is non-zero
+    private long[] exportedWords() {
+        long[] bits = new long[(int) ((nCounters + Long.SIZE - 1) / Long.SIZE)];
+
+        for (int word = 0; word < counters.length; word++) {
+            long value = counters[word];
+            for (int i = 0; value != 0; i++, value >>>= COUNTER_BITS) {
+                if ((value & COUNTER_MASK) != 0) {
+                    long counter = (long) word * COUNTERS_PER_WORD + i;
+                    bits[(int) (counter >>> 6)] |= 1L << counter;
+                }
+            }
+        }
+
+        return bits;
+    }
+
+    private static int wordsFor(long nCounters) {
+        long nWords = (nCounters + COUNTERS_PER_WORD - 1) / COUNTERS_PER_WORD;
+        if (nWords > Integer.MAX_VALUE - 8) {
+            throw new IllegalArgumentException("Counting filter too large: " + nCounters + " counters");
+        }
+        return (int) nWords;
+    }
+}
@@ -0,0 +1,40 @@
+package learn.utils;
+
+import java.lang.foreign.MemorySegment;
+import java.util.BitSet;
+
+/**
+ * Bits held in a java.util.BitSet on the heap, so indices must stay below Integer.MAX_VALUE.
+ */
+final class HeapBitStore implements BitStore {
+    private final BitSet bits;
+
+    HeapBitStore(BitSet bits) {
+        this.bits = bits;
+    }
+
+    @Override
+    public boolean get(long index) {
+        return bits.get((int) index);
+    }
+
+    @Override
+    public void set(long index) {
+        bits.set((int) index, true);
+    }
+
+    @Override
+    public BitSet toBitSet() {
+        return bits;
+    }
+
+    @Override
+    public long cardinality() {
+        return bits.cardinality();
+    }
+
+    @Override
+    public MemorySegment segment() {
+        return null;
+    }
+}
@@ -0,0 +1,43 @@
+package learn.utils;
+
+/**
+ * How a Bloom filter maps a 64-bit hash onto an index in its bit array.
+ */
+public enum IndexReduction {
+    /**
+     * hash mod nBits. Used by filters compiled before the bit count was stored.
+     */
+    MODULO,
+
+    /**
+     * Lemire's multiply-shift: the high 64 bits of hash * nBits. Works for any size without a division.
+     */
+    FAST_RANGE,
+
+    /**
+     * hash & (nBits - 1). Requires the bit count to be a power of two.
+     */
+    POWER_OF_TWO;
+
+    /**
+     * Returns the reduction a bit array of this size supports without a division
+     * @param nBits The number of bits in the array
+     */
+    public static IndexReduction forBitCount(long nBits) {
+        return Long.bitCount(nBits) == 1 ? POWER_OF_TWO : FAST_RANGE;
+    }
+
+    /**
+     * Maps a hash to an index in [0, nBits)
+     * @param hash The hash to map
+     * @param nBits The number of bits in the array
+     * @return The bit index
+     */
+    public long index(long hash, long nBits) {
+        return switch (this) {
+            case FAST_RANGE -> Math.unsignedMultiplyHigh(hash, nBits);
+            case POWER_OF_TWO -> hash & (nBits - 1);
+            case MODULO -> (hash & 0x7FFFFFFFFFFFFFFFL) % nBits;
+        };
+    }
+}
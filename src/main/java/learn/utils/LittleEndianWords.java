@@ -0,0 +1,33 @@
+package learn.utils;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+
+/**
+ * Views of a long[] bit array in the little-endian byte layout of compiled filters.
+ */
+final class LittleEndianWords {
+    private static final ValueLayout.OfLong LITTLE_ENDIAN_LONG =
+            ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+
+    private LittleEndianWords() {}
+
+    /**
+     * Returns the words as little-endian bytes without copying them on a little-endian host,
+     * so payloads beyond the 2 GB limit of a byte[] can be written out
+     */
+    static MemorySegment asSegment(long[] words) {
+        MemorySegment view = MemorySegment.ofArray(words);
+        if (ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN) {
+            return view.asReadOnly();
+        }
+
+        MemorySegment copy = Arena.ofAuto().allocate(view.byteSize(), Long.BYTES);
+        for (int i = 0; i < words.length; i++) {
+            copy.set(LITTLE_ENDIAN_LONG, (long) i * Long.BYTES, words[i]);
+        }
+        return copy;
+    }
+}
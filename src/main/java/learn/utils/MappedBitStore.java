@@ -0,0 +1,70 @@
+package learn.utils;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.BitSet;
+
+/**
+ * Bits answered straight out of a compiled payload, typically a memory-mapped file.
+ * The payload has the BitSet.toByteArray() layout, with trailing zero bytes possibly trimmed.
+ * Read-only unless the payload is writable, in which case bits are set in place.
+ */
+final class MappedBitStore implements BitStore {
+    private final MemorySegment payload;
+    private final long payloadBytes;
+    // told of each bit set that was clear, or null
+    private final PayloadChanges changes;
+
+    MappedBitStore(MemorySegment payload) {
+        this(payload, null);
+    }
+
+    MappedBitStore(MemorySegment payload, PayloadChanges changes) {
+        this.payload = payload;
+        this.payloadBytes = payload.byteSize();
+        this.changes = changes;
+    }
+
+    @Override
+    public boolean get(long index) {
+        long offset = index >>> 3;
+        return offset < payloadBytes && (payload.get(ValueLayout.JAVA_BYTE, offset) & (1 << (int) (index & 7))) != 0;
+    }
+
+    @Override
+    public void set(long index) {
+        if (payload.isReadOnly()) {
+            throw new UnsupportedOperationException("Mapped filters are read-only");
+        }
+
+        long offset = index >>> 3;
+        byte bits = payload.get(ValueLayout.JAVA_BYTE, offset);
+        int bit = 1 << (int) (index & 7);
+        if ((bits & bit) != 0) {
+            return;
+        }
+
+        payload.set(ValueLayout.JAVA_BYTE, offset, (byte) (bits | bit));
+        if (null != changes) {
+            changes.record(index);
+        }
+    }
+
+    @Override
+    public BitSet toBitSet() {
+        if (payloadBytes > Integer.MAX_VALUE / Byte.SIZE) {
+            throw new UnsupportedOperationException("Bit array too large for a BitSet");
+        }
+        return BitSet.valueOf(payload.toArray(ValueLayout.JAVA_BYTE));
+    }
+
+    @Override
+    public long cardinality() {
+        return WordKernels.INSTANCE.cardinality(payload);
+    }
+
+    @Override
+    public MemorySegment segment() {
+        return payload;
+    }
+}
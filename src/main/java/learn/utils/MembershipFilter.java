@@ -0,0 +1,42 @@
+package learn.utils;
+
+import java.nio.charset.StandardCharsets;
+import java.util.BitSet;
+
+/**
+ * The interface for compiled filters that answer membership queries,
+ * regardless of how their bits are laid out.
+ */
+public interface MembershipFilter {
+    /**
+     * Queries the member set to check for an element
+     * @param element The element to query
+     * @return true The element may exist in the set
+     *         false The element does not exist in set
+     */
+    boolean contains(String element);
+
+    /**
+     * Queries the member set for an element given as a slice of a byte array, such as a UTF-8 encoded word.
+     * Filters that hash the bytes directly should override this, so the element is not decoded first.
+     * @param element The array holding the element to query
+     * @param offset The index of the element's first byte
+     * @param length The number of bytes in the element
+     * @return true The element may exist in the set
+     *         false The element does not exist in set
+     */
+    default boolean contains(byte[] element, int offset, int length) {
+        return contains(new String(element, offset, length, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Queries the member set for every element of a batch
+     * @param elements The elements to query
+     * @param resultOut Bit i is set when elements[i] may exist in the set, and cleared otherwise
+     */
+    default void containsAll(String[] elements, BitSet resultOut) {
+        for (int i = 0; i < elements.length; i++) {
+            resultOut.set(i, contains(elements[i]));
+        }
+    }
+}
@@ -0,0 +1,50 @@
+package learn.utils;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.util.BitSet;
+
+/**
+ * Bits held in native memory outside the GC heap, indexed by long so arrays may exceed 2^31 bits.
+ * The memory is released when the arena that allocated it closes.
+ */
+final class OffHeapBitStore implements BitStore {
+    private final MemorySegment words;
+
+    OffHeapBitStore(long nBits, Arena arena) {
+        // allocated memory is zeroed
+        this.words = arena.allocate(((nBits + 63) >>> 6) * Long.BYTES, Long.BYTES);
+    }
+
+    @Override
+    public boolean get(long index) {
+        return (words.get(ValueLayout.JAVA_LONG, (index >>> 6) * Long.BYTES) & (1L << index)) != 0;
+    }
+
+    @Override
+    public void set(long index) {
+        long offset = (index >>> 6) * Long.BYTES;
+        words.set(ValueLayout.JAVA_LONG, offset, words.get(ValueLayout.JAVA_LONG, offset) | (1L << index));
+    }
+
+    @Override
+    public BitSet toBitSet() {
+        if (words.byteSize() > Integer.MAX_VALUE / Byte.SIZE) {
+            throw new UnsupportedOperationException("Bit array too large for a BitSet");
+        }
+        return BitSet.valueOf(words.toArray(ValueLayout.JAVA_LONG));
+    }
+
+    @Override
+    public long cardinality() {
+        return WordKernels.INSTANCE.cardinality(words);
+    }
+
+    @Override
+    public MemorySegment segment() {
+        // words are held in native order, which is only the payload layout on a little-endian host
+        return ByteOrder.nativeOrder() == ByteOrder.LITTLE_ENDIAN ? words : null;
+    }
+}
@@ -0,0 +1,300 @@
+package learn.utils;
+
+import learn.hash.QuickHash;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A standard Bloom filter split into independent shards, each holding the elements whose routing hash lands
+ * on it. Only the index of shards is read when the filter is opened; each shard is read from the compiled file,
+ * and checked against its own checksum, the first time a query touches it. At most a fixed number of shards
+ * stay resident, so a process answering a few queries reads a few pages and one answering many holds a bounded
+ * amount of memory. Shards are dropped by the clock approximation of least recently used: a query finds a
+ * resident shard without taking a lock, and only reading a shard in, and dropping one for it, is serialised.
+ *
+ * The compiled payload is little-endian: the number of shards (int) and a reserved int, then per shard its
+ * offset from the start of the payload (long), bit count (long), length in bytes (int) and CRC-32C (int),
+ * then the shards' bit arrays in the standard layout. Routing hashes with its own seed, so the elements of
+ * one shard still spread over all of its bits.
+ */
+public final class PartitionedFilter implements MembershipFilter, Closeable {
+    private static final int ROUTE_SEED = 0;
+
+    private static final ValueLayout.OfLong LONG_LE = ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final ValueLayout.OfInt INT_LE = ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.LITTLE_ENDIAN);
+    private static final int INDEX_PREAMBLE_BYTES = 2 * Integer.BYTES;
+    private static final int INDEX_ENTRY_BYTES = 2 * Long.BYTES + 2 * Integer.BYTES;
+
+    private final FileChannel file;
+    private final long payloadOffset;
+    private final BuildInfo header;
+    private final long[] shardOffsets;
+    private final long[] shardBits;
+    private final int[] shardLengths;
+    private final int[] shardChecksums;
+    private final QuickHash quickHash;
+
+    // the resident shards by shard index, null when not read; written only under the clock's lock
+    private final AtomicReferenceArray<BloomFilter> resident;
+    // set by queries, cleared as the clock hand passes; a shard still clear when the hand returns is dropped
+    private final AtomicIntegerArray referenced;
+    // the resident shard indices in the order the hand visits them
+    private final int[] clock;
+    private int nResident = 0;
+    private int hand = 0;
+    private final LongAdder shardReads = new LongAdder();
+
+    private PartitionedFilter(FileChannel file, long payloadOffset, BuildInfo header, MemorySegment index,
+                              int maxResidentShards) {
+        int nShards = index.get(INT_LE, 0);
+        this.file = file;
+        this.payloadOffset = payloadOffset;
+        this.header = header;
+        this.shardOffsets = new long[nShards];
+        this.shardBits = new long[nShards];
+        this.shardLengths = new int[nShards];
+        this.shardChecksums = new int[nShards];
+        this.quickHash = header.getHashAlgorithm().getHasher();
+
+        for (int i = 0; i < nShards; i++) {
+            long at = INDEX_PREAMBLE_BYTES + (long) i * INDEX_ENTRY_BYTES;
+            shardOffsets[i] = index.get(LONG_LE, at);
+            shardBits[i] = index.get(LONG_LE, at + Long.BYTES);
+            shardLengths[i] = index.get(INT_LE, at + 2 * Long.BYTES);
+            shardChecksums[i] = index.get(INT_LE, at + 2 * Long.BYTES + Integer.BYTES);
+        }
+
+        this.resident = new AtomicReferenceArray<>(nShards);
+        this.referenced = new AtomicIntegerArray(nShards);
+        this.clock = new int[Math.min(maxResidentShards, nShards)];
+    }
+
+    /**
+     * Opens a compiled partitioned filter, reading only its index of shards
+     * @param compiled The compiled file; kept open until the filter is closed
+     * @param payloadOffset Where the payload starts, right after the header
+     * @param header The build info saved with the compiled filter
+     * @param maxResidentShards How many shards may be held in memory at once
+     * @return The partitioned filter
+     * @throws IOException If problems occur reading the index
+     */
+    public static PartitionedFilter open(Path compiled, long payloadOffset, BuildInfo header, int maxResidentShards)
+            throws IOException {
+        if (header.getLayout() != BuildInfo.Layout.PARTITIONED) {
+            throw new IllegalArgumentException("Not a partitioned filter: " + header.getLayout());
+        }
+        if (maxResidentShards < 1) {
+            throw new IllegalArgumentException("At least one shard must be resident: " + maxResidentShards);
+        }
+
+        FileChannel file = FileChannel.open(compiled, StandardOpenOption.READ);
+        try {
+            ByteBuffer preamble = readFully(file, payloadOffset, INDEX_PREAMBLE_BYTES);
+            int nShards = preamble.order(ByteOrder.LITTLE_ENDIAN).getInt(0);
+            if (nShards < 1 || nShards > (Integer.MAX_VALUE - INDEX_PREAMBLE_BYTES) / INDEX_ENTRY_BYTES) {
+                throw new IllegalArgumentException("Invalid partitioned filter: " + nShards + " shards");
+            }
+
+            MemorySegment index = MemorySegment.ofBuffer(
+                    readFully(file, payloadOffset, INDEX_PREAMBLE_BYTES + nShards * INDEX_ENTRY_BYTES));
+            PartitionedFilter filter = new PartitionedFilter(file, payloadOffset, header, index, maxResidentShards);
+
+            long payloadBytes = file.size() - payloadOffset;
+            for (int i = 0; i < nShards; i++) {
+                if (filter.shardOffsets[i] < 0 || filter.shardLengths[i] < 0
+                        || filter.shardOffsets[i] + filter.shardLengths[i] > payloadBytes) {
+                    throw new IllegalArgumentException("Invalid partitioned filter: shard " + i + " out of bounds");
+                }
+            }
+            return filter;
+        } catch (IOException | RuntimeException e) {
+            file.close();
+            throw e;
+        }
+    }
+
+    /**
+     * Lays out the payload of a partitioned filter: the index, then every shard's bit array in turn
+     * @param shards The bit arrays of the shards, in the standard layout, in routing order
+     * @param shardBits The number of bits of each shard
+     * @param arena Allocates the payload
+     * @return The payload, read back by open()
+     */
+    public static MemorySegment compile(MemorySegment[] shards, long[] shardBits, Arena arena) {
+        if (shards.length == 0 || shards.length != shardBits.length) {
+            throw new IllegalArgumentException("Every shard needs a bit count, and there must be at least one");
+        }
+
+        long indexBytes = INDEX_PREAMBLE_BYTES + (long) shards.length * INDEX_ENTRY_BYTES;
+        long payloadBytes = indexBytes;
+        for (MemorySegment shard: shards) {
+            if (shard.byteSize() > Integer.MAX_VALUE - 8) {
+                throw new UnsupportedOperationException("Shard too large to read into a byte array; use more shards");
+            }
+            payloadBytes += shard.byteSize();
+        }
+
+        MemorySegment payload = arena.allocate(payloadBytes, Long.BYTES);
+        payload.set(INT_LE, 0, shards.length);
+
+        long offset = indexBytes;
+        for (int i = 0; i < shards.length; i++) {
+            long at = INDEX_PREAMBLE_BYTES + (long) i * INDEX_ENTRY_BYTES;
+            payload.set(LONG_LE, at, offset);
+            payload.set(LONG_LE, at + Long.BYTES, shardBits[i]);
+            payload.set(INT_LE, at + 2 * Long.BYTES, (int) shards[i].byteSize());
+            payload.set(INT_LE, at + 2 * Long.BYTES + Integer.BYTES, BuildInfo.payloadChecksum(shards[i]));
+
+            MemorySegment.copy(shards[i], 0, payload, offset, shards[i].byteSize());
+            offset += shards[i].byteSize();
+        }
+
+        return payload;
+    }
+
+    /**
+     * Returns the shard an element given as a slice of a byte array is routed to
+     */
+    public static int shardOf(byte[] element, int offset, int length, QuickHash quickHash, int nShards) {
+        return route(quickHash.hash(element, offset, length, ROUTE_SEED), nShards);
+    }
+
+    /**
+     * Returns the shard an element is routed to
+     */
+    public static int shardOf(CharSequence element, QuickHash quickHash, int nShards) {
+        return route(quickHash.hash(element, ROUTE_SEED), nShards);
+    }
+
+    public int getShardCount() {
+        return shardOffsets.length;
+    }
+
+    /**
+     * Returns how many shards are held in memory now
+     */
+    public int getResidentShardCount() {
+        synchronized (clock) {
+            return nResident;
+        }
+    }
+
+    /**
+     * Returns how many times a shard has been read from the compiled file, counting rereads of evicted shards
+     */
+    public long getShardReads() {
+        return shardReads.sum();
+    }
+
+    @Override
+    public boolean contains(String element) {
+        if (null == element) {
+            throw new IllegalArgumentException("element cannot be null");
+        }
+        return shard(shardOf(element, quickHash, getShardCount())).contains(element);
+    }
+
+    @Override
+    public boolean contains(byte[] element, int offset, int length) {
+        if (null == element) {
+            throw new IllegalArgumentException("element cannot be null");
+        }
+        return shard(shardOf(element, offset, length, quickHash, getShardCount())).contains(element, offset, length);
+    }
+
+    @Override
+    public void close() throws IOException {
+        file.close();
+    }
+
+    // ----------------------------- HELPERS -----------------------------
+
+    private static int route(long hash, int nShards) {
+        return (int) Math.unsignedMultiplyHigh(hash, nShards);
+    }
+
+    // the resident shard, read first if need be; read outside the lock, so a slow read holds up no other shard
+    private BloomFilter shard(int index) {
+        BloomFilter shard = resident.get(index);
+        if (null != shard) {
+            // only written when clear, so repeated queries of a hot shard leave its cache line shared
+            if (referenced.getOpaque(index) == 0) {
+                referenced.setOpaque(index, 1);
+            }
+            return shard;
+        }
+
+        shard = readShard(index);
+        synchronized (clock) {
+            // another thread may have read it meanwhile; either copy answers alike
+            BloomFilter raced = resident.get(index);
+            if (null != raced) {
+                return raced;
+            }
+
+            admit(index);
+            resident.set(index, shard);
+            return shard;
+        }
+    }
+
+    // gives a shard a slot on the clock, dropping the first shard the hand finds unreferenced if all are taken
+    private void admit(int index) {
+        if (nResident < clock.length) {
+            clock[nResident++] = index;
+            return;
+        }
+
+        while (referenced.getAndSet(clock[hand], 0) != 0) {
+            hand = (hand + 1) % clock.length;
+        }
+        resident.set(clock[hand], null);
+        clock[hand] = index;
+        hand = (hand + 1) % clock.length;
+    }
+
+    private BloomFilter readShard(int index) {
+        byte[] bits;
+        try {
+            bits = readFully(file, payloadOffset + shardOffsets[index], shardLengths[index]).array();
+        } catch (IOException e) {
+            throw new UncheckedIOException("Could not read shard " + index, e);
+        }
+        shardReads.increment();
+
+        if (BuildInfo.payloadChecksum(MemorySegment.ofArray(bits)) != shardChecksums[index]) {
+            throw new Error("Corrupted compiled dictionary: shard " + index + " checksum does not match index.");
+        }
+
+        return BloomFilter.build(bits, new BuildInfo()
+                .setVersion(header.getVersion())
+                .setHashFunctions(header.getNHashFunctions())
+                .setBloomFilterBitsRequired(shardBits[index])
+                .setHashAlgorithm(header.getHashAlgorithm())
+                .setDFP(header.getDFP()));
+    }
+
+    private static ByteBuffer readFully(FileChannel file, long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length);
+        while (buffer.hasRemaining()) {
+            if (file.read(buffer, position + buffer.position()) < 0) {
+                throw new EOFException("Compiled dictionary truncated at " + (position + buffer.position()));
+            }
+        }
+        return buffer.flip();
+    }
+}
@@ -0,0 +1,147 @@
+package learn.utils;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+
+/**
+ * The bits newly set in a compiled payload, so its CRC32C can be brought up to date without reading it again.
+ * CRC32C is linear: for payloads of the same length, the checksum of the new one is the checksum of the old one
+ * xor the unconditioned CRC of their difference, and adding only sets bits, so the difference is the new bits.
+ * Not thread-safe.
+ */
+public final class PayloadChanges {
+    // reflected CRC-32C polynomial
+    private static final int POLYNOMIAL = 0x82F63B78;
+    // x^(2^k) modulo the polynomial, for shifting a CRC over runs of zero bytes
+    private static final int[] X2N = new int[3 + Long.SIZE];
+
+    // past one change per page, adding has written to most pages anyway, so they are checksummed again instead
+    private static final long BYTES_PER_CHANGE = 4096;
+
+    static {
+        X2N[0] = 1 << 30; // x^1
+        for (int k = 1; k < X2N.length; k++) {
+            X2N[k] = multiplyModP(X2N[k - 1], X2N[k - 1]);
+        }
+    }
+
+    private final long payloadBytes;
+    private final int maxChanges;
+    private long[] setBits = new long[16];
+    private int nSetBits = 0;
+    private boolean dense = false;
+
+    /**
+     * @param payloadBytes The size of the payload the changes are made to
+     */
+    public PayloadChanges(long payloadBytes) {
+        this.payloadBytes = payloadBytes;
+        this.maxChanges = (int) Math.min(Integer.MAX_VALUE - 8, Math.max(16, payloadBytes / BYTES_PER_CHANGE));
+    }
+
+    // called with each bit that was clear before it was set
+    void record(long index) {
+        if (dense) {
+            return;
+        }
+        if (nSetBits == maxChanges) {
+            dense = true;
+            setBits = null;
+            return;
+        }
+        if (nSetBits == setBits.length) {
+            setBits = Arrays.copyOf(setBits, (int) Math.min(maxChanges, 2L * setBits.length));
+        }
+        setBits[nSetBits++] = index;
+    }
+
+    /**
+     * Returns the CRC32C of the payload after the recorded changes
+     * @param checksum The CRC32C of the payload before them; a stale checksum stays stale
+     * @param checksummedBytes How many leading bytes of the payload the checksum covers; the rest were zero,
+     *                         as when a payload saved without its trailing zero bytes is extended to be added to
+     * @param payload The payload, after the changes
+     * @return The updated checksum, as BuildInfo.payloadChecksum() would compute it
+     */
+    public int updateChecksum(int checksum, long checksummedBytes, MemorySegment payload) {
+        if (payload.byteSize() != payloadBytes || checksummedBytes > payloadBytes) {
+            throw new IllegalArgumentException("Changes were recorded against a payload of " + payloadBytes + " bytes");
+        }
+        if (dense) {
+            return BuildInfo.payloadChecksum(payload);
+        }
+
+        long[] changed = Arrays.copyOf(setBits, nSetBits);
+        Arrays.sort(changed);
+
+        // the CRC of the difference, fed a byte at a time in order, shifting over the unchanged bytes between
+        int crc = 0;
+        long lastOffset = -1;
+        for (int i = 0; i < changed.length; ) {
+            long offset = changed[i] >>> 3;
+            int difference = 0;
+            for (; i < changed.length && changed[i] >>> 3 == offset; i++) {
+                difference |= 1 << (int) (changed[i] & 7);
+            }
+
+            crc = shift(crc, lastOffset < 0 ? 0 : offset - lastOffset) ^ crcOfByte(difference);
+            lastOffset = offset;
+        }
+        if (lastOffset >= 0) {
+            crc = shift(crc, payloadBytes - 1 - lastOffset);
+        }
+
+        // appending zero bytes shifts the unconditioned CRC, between undoing and redoing the final inversion
+        int extended = ~shift(~checksum, payloadBytes - checksummedBytes);
+
+        return extended ^ crc;
+    }
+
+    /**
+     * Returns whether so many bits were set that the checksum will be computed over the whole payload again
+     */
+    public boolean isDense() {
+        return dense;
+    }
+
+    // the unconditioned CRC of a single byte
+    private static int crcOfByte(int b) {
+        int crc = b & 0xFF;
+        for (int bit = 0; bit < Byte.SIZE; bit++) {
+            crc = (crc & 1) != 0 ? (crc >>> 1) ^ POLYNOMIAL : crc >>> 1;
+        }
+        return crc;
+    }
+
+    // the unconditioned CRC after some zero bytes are appended
+    private static int shift(int crc, long zeroBytes) {
+        if (0 == crc || 0 == zeroBytes) {
+            return crc;
+        }
+
+        // x^(8n), built from the powers x^(2^k) for the bits of n, starting at k = 3 for bytes
+        int power = 1 << 31; // x^0
+        int k = 3;
+        for (long n = zeroBytes; n != 0; n >>>= 1, k++) {
+            if ((n & 1) != 0) {
+                power = multiplyModP(X2N[k], power);
+            }
+        }
+        return multiplyModP(power, crc);
+    }
+
+    // a times b modulo the polynomial, both reflected
+    private static int multiplyModP(int a, int b) {
+        int product = 0;
+        for (int m = 1 << 31; m != 0; m >>>= 1) {
+            if ((a & m) != 0) {
+                product ^= b;
+                if ((a & (m - 1)) == 0) {
+                    break;
+                }
+            }
+            b = (b & 1) != 0 ? (b >>> 1) ^ POLYNOMIAL : b >>> 1;
+        }
+        return product;
+    }
+}
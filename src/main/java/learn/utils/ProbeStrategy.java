@@ -0,0 +1,33 @@
+package learn.utils;
+
+/**
+ * How a Bloom filter derives its k bit indices from an element.
+ */
+public enum ProbeStrategy {
+    /**
+     * One full hash of the element per seed. Used by filters compiled before double hashing.
+     */
+    SEEDED,
+
+    /**
+     * One hash of the element, expanded into k indices with Kirsch-Mitzenmacher double hashing:
+     * index(i) = h1 + i * h2, where h2 is derived from h1.
+     */
+    DOUBLE_HASHING;
+
+    /**
+     * Derives the second hash (h2) for double hashing from the first.
+     * Forced odd, so consecutive probes never repeat within a power-of-two sized bit array.
+     * @param hash The first hash (h1) of the element
+     * @return The distance between consecutive probes
+     */
+    public static long step(long hash) {
+        // MurmurHash3 64-bit finalizer
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash | 1L;
+    }
+}
@@ -0,0 +1,340 @@
+package learn.utils;
+
+import learn.hash.FNV1A64;
+import learn.hash.QuickHash;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Bloom filter that grows as elements are added, instead of fixing its capacity up front.
+ * Chains standard Bloom filters, each with GROWTH times the capacity of the one before and TIGHTENING
+ * times its false positive probability. Once the newest filter holds its capacity, the next one is added,
+ * so an add costs the same k probes as a standard filter, while the false positive probabilities of the
+ * chain sum to at most the desired one however many elements are added.
+ *
+ * Not thread-safe.
+ */
+public class ScalableBloomFilter implements MembershipFilter {
+    public static final int GROWTH = 2;
+    public static final double TIGHTENING = 0.5;
+
+    private static final ValueLayout.OfDouble BIG_ENDIAN_DOUBLE =
+            ValueLayout.JAVA_DOUBLE_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final ValueLayout.OfLong BIG_ENDIAN_LONG =
+            ValueLayout.JAVA_LONG_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final ValueLayout.OfInt BIG_ENDIAN_INT =
+            ValueLayout.JAVA_INT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+    private static final ValueLayout.OfShort BIG_ENDIAN_SHORT =
+            ValueLayout.JAVA_SHORT_UNALIGNED.withOrder(ByteOrder.BIG_ENDIAN);
+
+    private final double DFP; // desired false positive probability, of the whole chain
+    private final long initialCapacity;
+    private final QuickHash quickHash;
+    private final List<Segment> segments = new ArrayList<>();
+
+    // one filter of the chain, and how many of its capacity are used
+    private static final class Segment {
+        final BloomFilter filter;
+        final long capacity;
+        long nElements;
+
+        Segment(BloomFilter filter, long capacity, long nElements) {
+            this.filter = filter;
+            this.capacity = capacity;
+            this.nElements = nElements;
+        }
+    }
+
+    private ScalableBloomFilter(double dfp, long initialCapacity, QuickHash quickHash) {
+        this.DFP = dfp;
+        this.initialCapacity = initialCapacity;
+        this.quickHash = quickHash;
+    }
+
+    /**
+     * Build a new scalable Bloom filter
+     * @param dfp The desired false positive probability of the whole filter, however large it grows
+     * @param initialCapacity The number of elements the first filter of the chain holds
+     * @return The scalable Bloom filter
+     */
+    public static ScalableBloomFilter build(double dfp, long initialCapacity) {
+        return build(dfp, initialCapacity, FNV1A64.INSTANCE);
+    }
+
+    /**
+     * Build a new scalable Bloom filter
+     * @param dfp The desired false positive probability of the whole filter, however large it grows
+     * @param initialCapacity The number of elements the first filter of the chain holds
+     * @param quickHash The hashing algorithm, fixed for the life of the filter
+     * @return The scalable Bloom filter
+     */
+    public static ScalableBloomFilter build(double dfp, long initialCapacity, QuickHash quickHash) {
+        if (dfp <= BloomFilter.DFP_MIN || dfp >= BloomFilter.DFP_MAX) {
+            throw new IllegalArgumentException("False positive probability must be between 0 and 1: " + dfp);
+        }
+        if (initialCapacity <= 0) {
+            throw new IllegalArgumentException("Initial capacity must be positive: " + initialCapacity);
+        }
+        if (null == quickHash) {
+            throw new IllegalArgumentException("hasher cannot be null");
+        }
+
+        ScalableBloomFilter filter = new ScalableBloomFilter(dfp, initialCapacity, quickHash);
+        filter.grow();
+
+        return filter;
+    }
+
+    /**
+     * Build a scalable Bloom filter using a previously compiled filter and the header it was saved with.
+     * The filter keeps growing from where it was saved, on a copy of data.
+     * @param data The segments of a compiled filter, as written by toByteArray()
+     * @param header The build info saved with the compiled filter
+     * @return The scalable Bloom filter
+     */
+    public static ScalableBloomFilter build(byte[] data, BuildInfo header) {
+        MemorySegment copy = Arena.ofAuto().allocate(data.length, Long.BYTES).copyFrom(MemorySegment.ofArray(data));
+
+        return map(copy, header);
+    }
+
+    /**
+     * Build a scalable Bloom filter whose segments answer queries straight out of a compiled payload,
+     * without copying them. Adding to a saved segment sets bits in place if the payload is writable, and
+     * otherwise throws UnsupportedOperationException; segments chained afterwards are held by the filter.
+     * @param data The segments of a compiled filter, as written by toMemorySegment(); must outlive the filter
+     * @param header The build info saved with the compiled filter
+     * @return The scalable Bloom filter
+     */
+    public static ScalableBloomFilter map(MemorySegment data, BuildInfo header) {
+        if (header.getLayout() != BuildInfo.Layout.SCALABLE) {
+            throw new IllegalArgumentException("Not a scalable filter: " + header.getLayout());
+        }
+
+        try {
+            double dfp = data.get(BIG_ENDIAN_DOUBLE, 0);
+            long initialCapacity = data.get(BIG_ENDIAN_LONG, Double.BYTES);
+            int nSegments = data.get(BIG_ENDIAN_INT, Double.BYTES + Long.BYTES);
+            long at = Double.BYTES + Long.BYTES + Integer.BYTES;
+
+            if (nSegments <= 0) {
+                throw new IllegalArgumentException("Invalid scalable filter: no segments");
+            }
+
+            ScalableBloomFilter filter = new ScalableBloomFilter(dfp, initialCapacity,
+                    header.getHashAlgorithm().getHasher());
+
+            for (int i = 0; i < nSegments; i++) {
+                long nElements = data.get(BIG_ENDIAN_LONG, at);
+                short nHashes = data.get(BIG_ENDIAN_SHORT, at + Long.BYTES);
+                long nBits = data.get(BIG_ENDIAN_LONG, at + Long.BYTES + Short.BYTES);
+                at += Long.BYTES + Short.BYTES + Long.BYTES;
+
+                MemorySegment words = data.asSlice(at, wordBytesFor(nBits));
+                at += words.byteSize();
+
+                // each segment reads back like a compiled standard filter of the same version
+                BuildInfo segmentHeader = new BuildInfo()
+                        .setVersion(header.getVersion())
+                        .setHashFunctions(nHashes)
+                        .setBloomFilterBitsRequired(nBits)
+                        .setHashAlgorithm(header.getHashAlgorithm());
+
+                filter.segments.add(new Segment(BloomFilter.map(words, segmentHeader),
+                        filter.capacityOf(i), nElements));
+            }
+
+            return filter;
+        } catch (IndexOutOfBoundsException e) {
+            throw new IllegalArgumentException("Invalid scalable filter: truncated segment", e);
+        }
+    }
+
+    /**
+     * Returns the desired false positive probability of the whole filter
+     */
+    public double getDFP() {
+        return DFP;
+    }
+
+    /**
+     * Returns the number of filters chained so far
+     */
+    public int getSegmentCount() {
+        return segments.size();
+    }
+
+    /**
+     * Returns the number of elements added, counting repeats
+     */
+    public long getElementCount() {
+        long nElements = 0;
+        for (Segment segment: segments) {
+            nElements += segment.nElements;
+        }
+        return nElements;
+    }
+
+    /**
+     * Returns the number of bits of all the chained filters
+     */
+    public long getBitCount() {
+        long nBits = 0;
+        for (Segment segment: segments) {
+            nBits += segment.filter.getBitCount();
+        }
+        return nBits;
+    }
+
+    /**
+     * Returns the number of probes per element of the first filter; later filters use more
+     */
+    public int getNumOfHashFunctions() {
+        return segments.getFirst().filter.getSeeds().length;
+    }
+
+    /**
+     * Returns the segments of the filter, the layout read by build(byte[], BuildInfo). Big-endian:
+     * the desired false positive probability (double), the initial capacity (long), the number of segments (int),
+     * then per segment its number of elements (long), hash functions (short), bits (long),
+     * and its bit array as the little-endian words of a compiled standard filter.
+     */
+    public byte[] toByteArray() {
+        MemorySegment segment = toMemorySegment();
+        if (segment.byteSize() > Integer.MAX_VALUE - 8) {
+            throw new UnsupportedOperationException("Scalable filter too large for a byte array; use toMemorySegment()");
+        }
+
+        return segment.toArray(ValueLayout.JAVA_BYTE);
+    }
+
+    /**
+     * Returns the segments of the filter in the layout of toByteArray(), without its 2 GB limit
+     */
+    public MemorySegment toMemorySegment() {
+        long nBytes = Double.BYTES + Long.BYTES + Integer.BYTES;
+        for (Segment segment: segments) {
+            nBytes += Long.BYTES + Short.BYTES + Long.BYTES + wordBytesFor(segment.filter.getBitCount());
+        }
+
+        // allocated memory is zeroed, which restores the trailing zero bytes BitSet drops
+        MemorySegment out = Arena.ofAuto().allocate(nBytes, Long.BYTES);
+        out.set(BIG_ENDIAN_DOUBLE, 0, DFP);
+        out.set(BIG_ENDIAN_LONG, Double.BYTES, initialCapacity);
+        out.set(BIG_ENDIAN_INT, Double.BYTES + Long.BYTES, segments.size());
+        long at = Double.BYTES + Long.BYTES + Integer.BYTES;
+
+        for (Segment segment: segments) {
+            long nBits = segment.filter.getBitCount();
+
+            out.set(BIG_ENDIAN_LONG, at, segment.nElements);
+            out.set(BIG_ENDIAN_SHORT, at + Long.BYTES, (short) segment.filter.getSeeds().length);
+            out.set(BIG_ENDIAN_LONG, at + Long.BYTES + Short.BYTES, nBits);
+            at += Long.BYTES + Short.BYTES + Long.BYTES;
+
+            // payloads saved from a BitSet may be missing their trailing zero bytes
+            MemorySegment words = segment.filter.bitSegment();
+            MemorySegment.copy(words, 0, out, at, Math.min(words.byteSize(), wordBytesFor(nBits)));
+            at += wordBytesFor(nBits);
+        }
+
+        return out;
+    }
+
+    /**
+     * Adds a new member to the newest filter, chaining a larger one first if it is full
+     * @param element The new member to add
+     */
+    public void add(CharSequence element) {
+        Segment newest = newestWithRoom();
+        newest.filter.add(element);
+        newest.nElements++;
+    }
+
+    /**
+     * Adds a new member given as a slice of a byte array, such as a UTF-8 encoded line
+     * @param element The array holding the new member
+     * @param offset The index of the member's first byte
+     * @param length The number of bytes in the member
+     */
+    public void add(byte[] element, int offset, int length) {
+        Segment newest = newestWithRoom();
+        newest.filter.add(element, offset, length);
+        newest.nElements++;
+    }
+
+    /**
+     * Queries the member set to check for an element
+     * @param element The element to query
+     * @return true The element may exist in the set
+     *         false The element does not exist in set
+     */
+    @Override
+    public boolean contains(String element) {
+        // newest first, since the newest filter holds about as many elements as all the others
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            if (segments.get(i).filter.contains(element)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Queries the member set for an element given as a slice of a byte array
+     * @param element The array holding the element to query
+     * @param offset The index of the element's first byte
+     * @param length The number of bytes in the element
+     * @return true The element may exist in the set
+     *         false The element does not exist in set
+     */
+    @Override
+    public boolean contains(byte[] element, int offset, int length) {
+        for (int i = segments.size() - 1; i >= 0; i--) {
+            if (segments.get(i).filter.contains(element, offset, length)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    // ----------------------------- HELPERS -----------------------------
+
+    private Segment newestWithRoom() {
+        Segment newest = segments.getLast();
+
+        return newest.nElements < newest.capacity ? newest : grow();
+    }
+
+    // chains the next filter, with GROWTH times the capacity and TIGHTENING times the DFP of the last
+    private Segment grow() {
+        int index = segments.size();
+        long capacity = capacityOf(index);
+        double dfp = DFP * (1 - TIGHTENING) * Math.pow(TIGHTENING, index);
+
+        BloomFilter filter = BloomFilter.build(dfp, capacity);
+        filter.withHasher(quickHash);
+
+        Segment segment = new Segment(filter, capacity, 0);
+        segments.add(segment);
+
+        return segment;
+    }
+
+    private long capacityOf(int index) {
+        long capacity = initialCapacity;
+        for (int i = 0; i < index; i++) {
+            capacity = Math.multiplyExact(capacity, GROWTH);
+        }
+        return capacity;
+    }
+
+    private static long wordBytesFor(long nBits) {
+        return ((nBits + Long.SIZE - 1) / Long.SIZE) * Long.BYTES;
+    }
+}
@@ -0,0 +1,53 @@
+package learn.utils;
+
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+
+/**
+ * Kernels that work a word at a time, then byte by byte over any trailing bytes.
+ */
+final class ScalarWordKernels implements WordKernels {
+    private static final ValueLayout.OfLong WORD = ValueLayout.JAVA_LONG_UNALIGNED;
+
+    @Override
+    public long cardinality(MemorySegment bits) {
+        long count = 0;
+        long offset = 0;
+
+        for (long end = bits.byteSize() - Long.BYTES; offset <= end; offset += Long.BYTES) {
+            count += Long.bitCount(bits.get(WORD, offset));
+        }
+        for (; offset < bits.byteSize(); offset++) {
+            count += Integer.bitCount(bits.get(ValueLayout.JAVA_BYTE, offset) & 0xFF);
+        }
+
+        return count;
+    }
+
+    @Override
+    public void or(MemorySegment target, MemorySegment source, long from, long to) {
+        merge(target, source, from, to, false);
+    }
+
+    @Override
+    public void and(MemorySegment target, MemorySegment source, long from, long to) {
+        merge(target, source, from, to, true);
+    }
+
+    private static void merge(MemorySegment target, MemorySegment source, long from, long to, boolean intersect) {
+        long offset = from;
+
+        for (long end = to - Long.BYTES; offset <= end; offset += Long.BYTES) {
+            long merged = intersect
+                    ? target.get(WORD, offset) & source.get(WORD, offset)
+                    : target.get(WORD, offset) | source.get(WORD, offset);
+            target.set(WORD, offset, merged);
+        }
+
+        for (; offset < to; offset++) {
+            byte t = target.get(ValueLayout.JAVA_BYTE, offset);
+            byte s = source.get(ValueLayout.JAVA_BYTE, offset);
+            target.set(ValueLayout.JAVA_BYTE, offset, (byte) (intersect ? t & s : t | s));
+        }
+    }
+}
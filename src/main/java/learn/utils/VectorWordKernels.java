@@ -0,0 +1,70 @@
+package learn.utils;
+
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteOrder;
+
+/**
+ * Kernels that work a vector of words at a time, as wide as the host supports, leaving what does not fill
+ * a whole vector to the scalar kernels. Only loaded by WordKernels.select() once the incubator module is present.
+ *
+ * Vectors only load from native segments, or heap segments over a byte[], so other heap segments are left
+ * to the scalar kernels whole.
+ */
+final class VectorWordKernels implements WordKernels {
+    private static final VectorSpecies<Long> SPECIES = LongVector.SPECIES_PREFERRED;
+    private static final long VECTOR_BYTES = SPECIES.vectorByteSize();
+    private static final ByteOrder ORDER = ByteOrder.nativeOrder();
+
+    private final ScalarWordKernels scalar = new ScalarWordKernels();
+
+    @Override
+    public long cardinality(MemorySegment bits) {
+        if (!isLoadable(bits)) {
+            return scalar.cardinality(bits);
+        }
+
+        LongVector counts = LongVector.zero(SPECIES);
+        long offset = 0;
+        for (long end = bits.byteSize() - VECTOR_BYTES; offset <= end; offset += VECTOR_BYTES) {
+            counts = counts.add(LongVector.fromMemorySegment(SPECIES, bits, offset, ORDER)
+                    .lanewise(VectorOperators.BIT_COUNT));
+        }
+
+        return counts.reduceLanes(VectorOperators.ADD) + scalar.cardinality(bits.asSlice(offset));
+    }
+
+    // one loop per operator, since lanewise() only compiles to a single instruction for a constant one
+    @Override
+    public void or(MemorySegment target, MemorySegment source, long from, long to) {
+        long offset = from;
+        if (isLoadable(target) && isLoadable(source)) {
+            for (long end = to - VECTOR_BYTES; offset <= end; offset += VECTOR_BYTES) {
+                LongVector.fromMemorySegment(SPECIES, target, offset, ORDER)
+                        .or(LongVector.fromMemorySegment(SPECIES, source, offset, ORDER))
+                        .intoMemorySegment(target, offset, ORDER);
+            }
+        }
+        scalar.or(target, source, offset, to);
+    }
+
+    @Override
+    public void and(MemorySegment target, MemorySegment source, long from, long to) {
+        long offset = from;
+        if (isLoadable(target) && isLoadable(source)) {
+            for (long end = to - VECTOR_BYTES; offset <= end; offset += VECTOR_BYTES) {
+                LongVector.fromMemorySegment(SPECIES, target, offset, ORDER)
+                        .and(LongVector.fromMemorySegment(SPECIES, source, offset, ORDER))
+                        .intoMemorySegment(target, offset, ORDER);
+            }
+        }
+        scalar.and(target, source, offset, to);
+    }
+
+    private static boolean isLoadable(MemorySegment segment) {
+        return segment.isNative() || segment.heapBase().orElse(null) instanceof byte[];
+    }
+}
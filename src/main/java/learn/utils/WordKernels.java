@@ -0,0 +1,44 @@
+package learn.utils;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Whole-array passes over bit arrays held in segments, such as mapped payloads and off-heap words.
+ * Both sides of a merge share a byte layout, so bits combine and count alike whatever order words are read in.
+ *
+ * The kernels run on the Vector API when built with the vector profile and the JVM was started with
+ * --add-modules jdk.incubator.vector, and a word at a time otherwise.
+ */
+interface WordKernels {
+    WordKernels INSTANCE = select();
+
+    /**
+     * Returns the number of set bits in a segment
+     */
+    long cardinality(MemorySegment bits);
+
+    /**
+     * Sets the bits of target in [from, to), a byte range, that are set in source
+     */
+    void or(MemorySegment target, MemorySegment source, long from, long to);
+
+    /**
+     * Clears the bits of target in [from, to), a byte range, that are clear in source
+     */
+    void and(MemorySegment target, MemorySegment source, long from, long to);
+
+    // only loads the vector kernels, which link against the incubator module, when that module is present;
+    // they are not compiled at all without the vector profile
+    private static WordKernels select() {
+        if (ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return (WordKernels) Class.forName("learn.utils.VectorWordKernels")
+                        .getDeclaredConstructor()
+                        .newInstance();
+            } catch (ReflectiveOperationException | LinkageError e) {
+                // fall back to the scalar kernels below
+            }
+        }
+        return new ScalarWordKernels();
+    }
+}
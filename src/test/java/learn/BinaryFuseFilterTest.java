@@ -0,0 +1,67 @@
+package learn;
+
+import learn.hash.HashAlgorithm;
+import learn.utils.BinaryFuseFilter;
+import learn.utils.BuildInfo;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BinaryFuseFilterTest {
+    int N_ELEMENTS = 100_000;
+
+    @Test
+    void answersForEveryMemberAtTheFingerprintRate() {
+        String[] members = new String[N_ELEMENTS];
+        for (int i = 0; i < N_ELEMENTS; i++) {
+            members[i] = "word" + i;
+        }
+        BinaryFuseFilter filter = BinaryFuseFilter.build(members, HashAlgorithm.XXHASH64.getHasher());
+
+        for (String member: members) {
+            assertTrue(filter.contains(member));
+            byte[] bytes = member.getBytes(StandardCharsets.UTF_8);
+            assertTrue(filter.contains(bytes, 0, bytes.length));
+        }
+
+        int nFalsePositives = 0;
+        for (int i = 0; i < N_ELEMENTS; i++) {
+            nFalsePositives += filter.contains("stranger" + i) ? 1 : 0;
+        }
+        assertEquals(BinaryFuseFilter.FALSE_POSITIVE_RATE, (double) nFalsePositives / N_ELEMENTS, 0.001);
+        assertTrue(filter.getBitCount() < 10L * N_ELEMENTS, filter.getBitCount() + " bits");
+    }
+
+    @Test
+    void readsBackCompiledPayload() {
+        String[] members = {"Hello", "World", "Hello", "café"};
+        BinaryFuseFilter filter = BinaryFuseFilter.build(members, HashAlgorithm.MURMUR3.getHasher());
+
+        BinaryFuseFilter mapped = BinaryFuseFilter.map(filter.toMemorySegment(), new BuildInfo()
+                .setVersion(BuildInfo.CURRENT_VERSION)
+                .setLayout(BuildInfo.Layout.FUSE)
+                .setHashAlgorithm(HashAlgorithm.MURMUR3));
+
+        for (String member: members) {
+            assertTrue(mapped.contains(member));
+        }
+        assertThrows(IllegalArgumentException.class,
+                () -> BinaryFuseFilter.map(filter.toMemorySegment(), new BuildInfo().setVersion(BuildInfo.CURRENT_VERSION)));
+    }
+
+    @Test
+    void buildsForTinySets() {
+        for (int size = 0; size < 20; size++) {
+            String[] members = new String[size];
+            for (int i = 0; i < size; i++) {
+                members[i] = "tiny" + i;
+            }
+            BinaryFuseFilter filter = BinaryFuseFilter.build(members, HashAlgorithm.FNV1A64.getHasher());
+            for (String member: members) {
+                assertTrue(filter.contains(member));
+            }
+        }
+    }
+}
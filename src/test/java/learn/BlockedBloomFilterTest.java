@@ -0,0 +1,78 @@
+package learn;
+
+import learn.utils.BlockedBloomFilter;
+import learn.utils.BloomFilter;
+import learn.utils.BuildInfo;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BlockedBloomFilterTest {
+    int N_ELEMENTS = 10_000;
+    double DFP = 0.01;
+
+    @Test
+    void returnsTrueForEveryMember() {
+        BlockedBloomFilter filter = BlockedBloomFilter.build(DFP, N_ELEMENTS);
+        for (int i = 0; i < N_ELEMENTS; i++) {
+            filter.add("word" + i);
+        }
+
+        for (int i = 0; i < N_ELEMENTS; i++) {
+            assertTrue(filter.contains("word" + i), "Should return true for 'word" + i + "' in member set.");
+        }
+    }
+
+    @Test
+    void falsePositiveRateStaysNearDesired() {
+        BlockedBloomFilter filter = BlockedBloomFilter.build(DFP, N_ELEMENTS);
+        for (int i = 0; i < N_ELEMENTS; i++) {
+            filter.add("word" + i);
+        }
+
+        int falsePositives = 0;
+        int nQueries = 100_000;
+        for (int i = 0; i < nQueries; i++) {
+            if (filter.contains("other" + i)) {
+                falsePositives++;
+            }
+        }
+
+        double rate = (double) falsePositives / nQueries;
+        assertTrue(rate < DFP * 1.5, String.format("False positive rate %.4f exceeds %.4f", rate, DFP));
+    }
+
+    @Test
+    void sizesLargerThanStandardFilter() {
+        long standardBits = BloomFilter.calculateBitArraySize(DFP, N_ELEMENTS);
+        int nBlocks = BlockedBloomFilter.calculateNumOfBlocks(DFP, N_ELEMENTS);
+        int nHashes = BlockedBloomFilter.calculateNumOfHashFunctions(DFP, N_ELEMENTS);
+
+        assertTrue((long) nBlocks * BlockedBloomFilter.BLOCK_BITS > standardBits);
+        assertTrue(BlockedBloomFilter.estimateFalsePositiveRate(nBlocks, nHashes, N_ELEMENTS) <= DFP);
+    }
+
+    @Test
+    void readsBackCompiledFilter() {
+        for (boolean roundToPowerOfTwo: new boolean[]{false, true}) {
+            BlockedBloomFilter built = BlockedBloomFilter.build(DFP, N_ELEMENTS, roundToPowerOfTwo);
+            for (int i = 0; i < 1000; i++) {
+                built.add("word" + i);
+            }
+
+            byte[] header = new BuildInfo()
+                    .setLayout(BuildInfo.Layout.BLOCKED)
+                    .setVersion(BuildInfo.CURRENT_VERSION)
+                    .setHashFunctions((short) built.getNumOfHashFunctions())
+                    .setBloomFilterBitsRequired(built.getBitCount())
+                    .generateByteHeader();
+            BuildInfo info = BuildInfo.readBuildInfo(header);
+            BlockedBloomFilter reloaded = BlockedBloomFilter.build(built.toByteArray(), info);
+
+            assertEquals(BuildInfo.Layout.BLOCKED, info.getLayout());
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(reloaded.contains("word" + i), "Should return true for 'word" + i + "' after reload.");
+            }
+        }
+    }
+}
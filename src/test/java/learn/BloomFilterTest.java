@@ -1,10 +1,21 @@
 package learn;
 
+import learn.dictionary.DictionaryData;
+import learn.dictionary.MappedDictionaryData;
+import learn.dictionary.Read;
 import learn.hash.FNV1A64;
 import learn.utils.BloomFilter;
+import learn.utils.BuildInfo;
+import learn.utils.ProbeStrategy;
 import org.junit.jupiter.api.Test;
 
+import java.io.IOException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
+import java.util.BitSet;
 
 import static org.junit.jupiter.api.Assertions.*;
 
@@ -12,7 +23,7 @@ class BloomFilterTest {
     int N_ELEMENTS = 10_000;
     double DFP = 0.01;
     int[] seeds = new int[]{1, 2, 3, 4, 5, 6, 7, 8, 9, 10};
-    int BITS_REQUIRED = BloomFilter.calculateBitArraySize(DFP, N_ELEMENTS);
+    long BITS_REQUIRED = BloomFilter.calculateBitArraySize(DFP, N_ELEMENTS);
     int N_HASH_FUNCTIONS = BloomFilter.calculateNumOfHashFunctions(BITS_REQUIRED, N_ELEMENTS);
 
     BloomFilter filter = null;
@@ -37,6 +48,205 @@ class BloomFilterTest {
         assertFalse(filter.contains("World"), "Should return false for 'World' in member set.");
     }
 
+    @Test
+    void batchCallsMatchSingleElementCalls() {
+        String[] words = new String[300];
+        for (int i = 0; i < words.length; i++) {
+            words[i] = "word" + i;
+        }
+
+        BloomFilter batched = BloomFilter.build(DFP, N_ELEMENTS);
+        batched.addAll(Arrays.copyOf(words, 150));
+        for (int i = 0; i < 150; i++) {
+            filter.add(words[i]);
+        }
+        assertEquals(filter.getBitArray(), batched.getBitArray());
+
+        BitSet found = new BitSet();
+        found.set(0, words.length); // stale results must be cleared
+        batched.containsAll(words, found);
+        for (int i = 0; i < words.length; i++) {
+            assertEquals(batched.contains(words[i]), found.get(i), "Batch result for '" + words[i] + "'");
+        }
+    }
+
+    @Test
+    void findsMembersWhateverTheirKeyType() {
+        byte[] bytes = "naïve".getBytes(StandardCharsets.UTF_8);
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length).put(0, bytes);
+
+        filter.add(new StringBuilder("naïve"));
+        assertTrue(filter.contains("naïve"));
+        assertTrue(filter.contains(bytes, 0, bytes.length));
+        assertTrue(filter.contains(direct, 0, bytes.length));
+        assertTrue(filter.contains(MemorySegment.ofBuffer(direct)));
+
+        filter.add(MemorySegment.ofArray("Hello".getBytes(StandardCharsets.UTF_8)));
+        assertTrue(filter.contains("Hello"));
+    }
+
+    @Test
+    void readsFilterCompiledWithSeededProbes() throws IOException {
+        DictionaryData dData = Read.dictFromCompiledSource("./data/test/dict-compiled.bf");
+        BloomFilter compiled = BloomFilter.build(dData.dictionary, dData.header);
+
+        assertEquals(ProbeStrategy.SEEDED, compiled.getProbeStrategy());
+        for (String word: Read.dictFromRawSource("./data/original/dict-sub.txt")) {
+            assertTrue(compiled.contains(word), "Should return true for '" + word + "' in compiled filter.");
+        }
+    }
+
+    @Test
+    void answersQueriesFromMappedFilter() throws IOException {
+        try (Arena arena = Arena.ofConfined()) {
+            MappedDictionaryData dData = Read.mapCompiledSource("./data/test/dict-compiled.bf", arena);
+            BloomFilter mapped = BloomFilter.map(dData.dictionary, dData.header);
+
+            for (String word: Read.dictFromRawSource("./data/original/dict-sub.txt")) {
+                assertTrue(mapped.contains(word), "Should return true for '" + word + "' in mapped filter.");
+            }
+            assertThrows(UnsupportedOperationException.class, () -> mapped.add("Hello"));
+        }
+    }
+
+    @Test
+    void mapsIndicesTheSameAfterReload() {
+        for (boolean roundToPowerOfTwo: new boolean[]{false, true}) {
+            BloomFilter built = BloomFilter.build(DFP, N_ELEMENTS, roundToPowerOfTwo);
+            for (int i = 0; i < 1000; i++) {
+                built.add("word" + i);
+            }
+
+            BuildInfo header = new BuildInfo()
+                    .setVersion(BuildInfo.CURRENT_VERSION)
+                    .setHashFunctions((short) built.getSeeds().length)
+                    .setBloomFilterBitsRequired(built.getBitCount());
+            BloomFilter reloaded = BloomFilter.build(built.getBitArray().toByteArray(), header);
+
+            assertEquals(built.getIndexReduction(), reloaded.getIndexReduction());
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(reloaded.contains("word" + i), "Should return true for 'word" + i + "' after reload.");
+            }
+        }
+    }
+
+    @Test
+    void sizesBitArraysBeyondIntegerRange() {
+        long nBits = BloomFilter.calculateBitArraySize(0.01, 300_000_000L);
+
+        assertTrue(nBits > Integer.MAX_VALUE, "Should size 300M elements beyond 2^31 bits.");
+        assertEquals(7, BloomFilter.calculateNumOfHashFunctions(nBits, 300_000_000L));
+    }
+
+    @Test
+    void returnsTrueForMembersOfOffHeapFilter() {
+        try (Arena arena = Arena.ofConfined()) {
+            BloomFilter offHeap = BloomFilter.build(DFP, N_ELEMENTS, false, arena);
+            BloomFilter onHeap = BloomFilter.build(DFP, N_ELEMENTS);
+            for (int i = 0; i < 1000; i++) {
+                offHeap.add("word" + i);
+                onHeap.add("word" + i);
+            }
+
+            for (int i = 0; i < 1000; i++) {
+                assertTrue(offHeap.contains("word" + i), "Should return true for 'word" + i + "' off the heap.");
+            }
+            assertEquals(onHeap.getBitArray(), offHeap.getBitArray());
+        }
+    }
+
+    @Test
+    void unionAndIntersectionMatchFiltersBuiltFromTheSets() {
+        String[] left = {"apple", "pear", "plum"};
+        String[] right = {"plum", "fig", "kiwi"};
+
+        try (Arena arena = Arena.ofConfined()) {
+            // one filter on the heap and one off it, so both merge paths run
+            BloomFilter union = BloomFilter.build(DFP, N_ELEMENTS, false);
+            BloomFilter intersection = BloomFilter.build(DFP, N_ELEMENTS, false, arena);
+            BloomFilter other = BloomFilter.build(DFP, N_ELEMENTS, false, arena);
+            BloomFilter both = BloomFilter.build(DFP, N_ELEMENTS);
+            union.addAll(left);
+            intersection.addAll(left);
+            other.addAll(right);
+            both.addAll(left);
+            both.addAll(right);
+
+            union.union(other);
+            intersection.intersect(union);
+            intersection.intersect(other);
+
+            assertEquals(both.getBitArray(), union.getBitArray());
+            assertTrue(intersection.contains("plum"));
+            assertFalse(intersection.contains("apple") && intersection.contains("fig"));
+
+            assertThrows(IllegalArgumentException.class, () -> union.union(BloomFilter.build(DFP, N_ELEMENTS / 2)));
+        }
+    }
+
+    @Test
+    void comparesBitArraysAcrossStores() {
+        try (Arena arena = Arena.ofConfined()) {
+            BloomFilter heap = BloomFilter.build(DFP, N_ELEMENTS, false);
+            BloomFilter offHeap = BloomFilter.build(DFP, N_ELEMENTS, false, arena);
+            for (int i = 0; i < N_ELEMENTS / 2; i++) {
+                heap.add("word" + i);
+                offHeap.add("word" + i);
+            }
+
+            assertTrue(offHeap.hasSameBits(heap));
+            assertEquals(heap.getBitPopulation(), offHeap.getBitPopulation());
+
+            // a trimmed payload, as saved from a BitSet, still matches its off-heap twin
+            byte[] payload = heap.getBitArray().toByteArray();
+            BloomFilter mapped = BloomFilter.map(arena.allocate(payload.length).copyFrom(MemorySegment.ofArray(payload)),
+                    new BuildInfo().setVersion(BuildInfo.CURRENT_VERSION)
+                            .setHashFunctions((short) N_HASH_FUNCTIONS)
+                            .setBloomFilterBitsRequired(BITS_REQUIRED));
+            assertTrue(mapped.hasSameBits(offHeap));
+            assertEquals(heap.getBitPopulation(), mapped.getBitPopulation());
+
+            offHeap.add("another");
+            assertFalse(offHeap.hasSameBits(heap));
+            assertFalse(mapped.hasSameBits(offHeap));
+        }
+    }
+
+    @Test
+    void answersForNumericKeys() {
+        long[] ids = new long[N_ELEMENTS];
+        for (int i = 0; i < ids.length; i++) {
+            ids[i] = 1_000_000_000_000L + i;
+        }
+        filter.addAll(Arrays.copyOf(ids, N_ELEMENTS / 2));
+        filter.add(42);
+
+        assertTrue(filter.contains(42L));
+        assertFalse(filter.contains("42"), "Numeric keys are not hashed as their decimal strings");
+
+        BitSet found = new BitSet();
+        filter.containsAll(ids, found);
+        int nFalsePositives = 0;
+        for (int i = 0; i < ids.length; i++) {
+            assertEquals(filter.contains(ids[i]), found.get(i));
+            if (i < N_ELEMENTS / 2) {
+                assertTrue(found.get(i));
+            } else if (found.get(i)) {
+                nFalsePositives++;
+            }
+        }
+        // sequential IDs spread as well as random ones: half full, so well under the desired rate
+        assertTrue(nFalsePositives < N_ELEMENTS / 2 * DFP, nFalsePositives + " false positives");
+    }
+
+    @Test
+    void hashesCharactersAsUtf8Bytes() {
+        for (String word: new String[]{"", "Hello", "caf\u00e9", "\u20ac100", "\ud83d\ude00", "bad\ud800"}) {
+            assertEquals(FNV1A64.hash(word.getBytes(StandardCharsets.UTF_8), 7), FNV1A64.hash(word, 7),
+                    "Should hash '" + word + "' the same as its UTF-8 bytes.");
+        }
+    }
+
     // The following values will be used to validate the helper functions
 // Elements (n),Desired False Positive,Optimal Hash Functions (k),Bit Array Size (m),Actual False Positive Rate
 //        10000,0.01,7,95851,0.00998
@@ -58,7 +268,7 @@ class BloomFilterTest {
         assertWithinPercentage(41503, BloomFilter.calculateBitArraySize(0.02, 5000), delta);
     }
 
-    private void assertWithinPercentage(int expected, int actual, double percentage) {
+    private void assertWithinPercentage(long expected, long actual, double percentage) {
         double allowedDifference = expected * (percentage / 100.0);
         assertTrue(Math.abs(expected - actual) <= allowedDifference,
                 String.format("Expected %d to be within %.1f%% of %d", actual, percentage, expected));
@@ -74,4 +284,19 @@ class BloomFilterTest {
         assertEquals(6, BloomFilter.calculateNumOfHashFunctions(41503,5000), delta);
 
     }
-}
\ No newline at end of file
+
+    @Test
+    void estimatesSaturationFromBitPopulation() {
+        assertEquals(0, filter.getBitPopulation());
+        assertEquals(0, filter.estimateElementCount());
+
+        for (int i = 0; i < N_ELEMENTS; i++) {
+            filter.add("word" + i);
+        }
+
+        // at capacity, an optimally sized filter is half full and as accurate as it was built to be
+        assertEquals(0.5, filter.getFillRatio(), 0.02);
+        assertEquals(N_ELEMENTS, filter.estimateElementCount(), N_ELEMENTS * 0.03);
+        assertEquals(DFP, filter.estimateFalsePositiveRate(), DFP * 0.2);
+    }
+}
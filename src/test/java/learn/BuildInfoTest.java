@@ -0,0 +1,99 @@
+package learn;
+
+import learn.hash.HashAlgorithm;
+import learn.utils.BuildInfo;
+import learn.utils.ProbeStrategy;
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BuildInfoTest {
+
+    @Test
+    void readsBackBitCountBeyondIntegerRange() {
+        byte[] bytes = new BuildInfo()
+                .setLayout(BuildInfo.Layout.BLOCKED)
+                .setVersion(BuildInfo.CURRENT_VERSION)
+                .setHashFunctions((short) 7)
+                .setBloomFilterBitsRequired(5_000_000_000L)
+                .generateByteHeader();
+
+        assertEquals(BuildInfo.headerByteSize(), bytes.length);
+        assertEquals(bytes.length, BuildInfo.headerByteSize(Arrays.copyOf(bytes, BuildInfo.PREFIX_BYTE_SIZE)));
+
+        BuildInfo header = BuildInfo.readBuildInfo(bytes);
+        assertEquals(BuildInfo.Layout.BLOCKED, header.getLayout());
+        assertEquals(7, header.getNHashFunctions());
+        assertEquals(5_000_000_000L, header.getBloomFilterBitsRequired());
+    }
+
+    @Test
+    void readsSeededHeader() {
+        byte[] bytes = new BuildInfo()
+                .setVersion(BuildInfo.VERSION_SEEDED)
+                .setHashFunctions((short) 7)
+                .setBloomFilterBitsRequired(95851)
+                .setHashAlgorithm(HashAlgorithm.MURMUR3)
+                .setEncoding(BuildInfo.Encoding.CONTAINERS)
+                .generateByteHeader();
+
+        assertEquals(12, bytes.length);
+        assertEquals(12, BuildInfo.headerByteSize(bytes));
+
+        // version 1 filters were all hashed with FNV-1a, saved raw and without a checksum
+        BuildInfo header = BuildInfo.readBuildInfo(bytes);
+        assertEquals(95851, header.getBloomFilterBitsRequired());
+        assertEquals(HashAlgorithm.FNV1A64, header.getHashAlgorithm());
+        assertEquals(BuildInfo.Encoding.RAW, header.getEncoding());
+        assertEquals(ProbeStrategy.SEEDED, header.getProbeStrategy());
+        assertFalse(header.hasPayloadChecksum());
+    }
+
+    @Test
+    void readsBackHashAlgorithmAndElementCount() {
+        byte[] bytes = new BuildInfo()
+                .setVersion(BuildInfo.CURRENT_VERSION)
+                .setHashFunctions((short) 7)
+                .setBloomFilterBitsRequired(95851)
+                .setHashAlgorithm(HashAlgorithm.MURMUR3)
+                .setElementCount(10_000)
+                .generateByteHeader();
+
+        assertEquals(BuildInfo.headerByteSize(bytes), bytes.length);
+        assertEquals(HashAlgorithm.MURMUR3, BuildInfo.readBuildInfo(bytes).getHashAlgorithm());
+        assertEquals(10_000, BuildInfo.readBuildInfo(bytes).getElementCount());
+    }
+
+    @Test
+    void readsBackEncoding() {
+        byte[] bytes = new BuildInfo()
+                .setVersion(BuildInfo.CURRENT_VERSION)
+                .setEncoding(BuildInfo.Encoding.CONTAINERS)
+                .generateByteHeader();
+
+        assertEquals(BuildInfo.Encoding.CONTAINERS, BuildInfo.readBuildInfo(bytes).getEncoding());
+    }
+
+    @Test
+    void readsBackDfpAndChecksum() {
+        int checksum = BuildInfo.payloadChecksum(MemorySegment.ofArray("payload".getBytes(StandardCharsets.US_ASCII)));
+        byte[] bytes = new BuildInfo()
+                .setVersion(BuildInfo.CURRENT_VERSION)
+                .setDFP(0.001)
+                .setPayloadChecksum(checksum)
+                .generateByteHeader();
+
+        BuildInfo header = BuildInfo.readBuildInfo(bytes);
+        assertEquals(0.001, header.getDFP());
+        assertEquals(BuildInfo.SeedDerivation.SEQUENTIAL, header.getSeedDerivation());
+        assertTrue(header.hasPayloadChecksum());
+        assertEquals(checksum, header.getPayloadChecksum());
+
+        // CRC-32C check value
+        assertEquals(0xE3069283, BuildInfo.payloadChecksum(MemorySegment.ofArray("123456789".getBytes(StandardCharsets.US_ASCII))));
+    }
+}
@@ -0,0 +1,86 @@
+package learn;
+
+import learn.utils.BloomFilter;
+import learn.utils.BuildInfo;
+import learn.utils.ConcurrentBloomFilter;
+import org.junit.jupiter.api.Test;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ConcurrentBloomFilterTest {
+    int N_ELEMENTS = 100_000;
+    double DFP = 0.01;
+
+    @Test
+    void returnsTrueForMembersAddedFromManyThreads() throws InterruptedException {
+        ConcurrentBloomFilter filter = ConcurrentBloomFilter.build(DFP, N_ELEMENTS);
+        int nThreads = 8;
+
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < nThreads; t++) {
+            int first = t;
+            threads.add(Thread.ofPlatform().start(() -> {
+                for (int i = first; i < N_ELEMENTS; i += nThreads) {
+                    filter.add("word" + i);
+                }
+            }));
+        }
+        for (Thread thread: threads) {
+            thread.join();
+        }
+
+        for (int i = 0; i < N_ELEMENTS; i++) {
+            assertTrue(filter.contains("word" + i), "Should return true for 'word" + i + "' in member set.");
+        }
+    }
+
+    @Test
+    void setsTheSameBitsAsBloomFilter() {
+        BloomFilter standard = BloomFilter.build(DFP, N_ELEMENTS);
+        ConcurrentBloomFilter concurrent = ConcurrentBloomFilter.build(DFP, N_ELEMENTS);
+        for (int i = 0; i < 1000; i++) {
+            standard.add("word" + i);
+            concurrent.add("word" + i);
+        }
+
+        assertEquals(standard.getBitArray(), BitSet.valueOf(concurrent.toByteArray()));
+    }
+
+    @Test
+    void addsRawBytesLikeStrings() {
+        ConcurrentBloomFilter fromStrings = ConcurrentBloomFilter.build(DFP, N_ELEMENTS);
+        ConcurrentBloomFilter fromBytes = ConcurrentBloomFilter.build(DFP, N_ELEMENTS);
+        for (String element: new String[]{"word", "naïve", "日本語"}) {
+            byte[] line = ("\n" + element + "\n").getBytes(StandardCharsets.UTF_8);
+            fromStrings.add(element);
+            fromBytes.add(line, 1, line.length - 2);
+
+            assertTrue(fromBytes.contains(element));
+        }
+
+        assertArrayEquals(fromStrings.toByteArray(), fromBytes.toByteArray());
+    }
+
+    @Test
+    void readsCompiledStandardFilter() {
+        BloomFilter standard = BloomFilter.build(DFP, N_ELEMENTS, true);
+        for (int i = 0; i < 1000; i++) {
+            standard.add("word" + i);
+        }
+
+        BuildInfo header = new BuildInfo()
+                .setVersion(BuildInfo.CURRENT_VERSION)
+                .setHashFunctions((short) standard.getSeeds().length)
+                .setBloomFilterBitsRequired(standard.getBitCount());
+        ConcurrentBloomFilter loaded = ConcurrentBloomFilter.build(standard.getBitArray().toByteArray(), header);
+
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(loaded.contains("word" + i), "Should return true for 'word" + i + "' after load.");
+        }
+    }
+}
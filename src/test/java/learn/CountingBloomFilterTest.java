@@ -0,0 +1,65 @@
+package learn;
+
+import learn.utils.BloomFilter;
+import learn.utils.CountingBloomFilter;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class CountingBloomFilterTest {
+    int N_ELEMENTS = 10_000;
+    double DFP = 0.01;
+
+    @Test
+    void removesMembers() {
+        CountingBloomFilter filter = CountingBloomFilter.build(DFP, N_ELEMENTS);
+        for (int i = 0; i < 1000; i++) {
+            filter.add("word" + i);
+        }
+
+        assertTrue(filter.remove("word7"));
+        assertFalse(filter.contains("word7"), "Should return false for 'word7' once removed.");
+        assertFalse(filter.remove("word7"), "Should not remove 'word7' twice.");
+        for (int i = 0; i < 1000; i++) {
+            if (i != 7) {
+                assertTrue(filter.contains("word" + i), "Should return true for 'word" + i + "' in member set.");
+            }
+        }
+    }
+
+    @Test
+    void saturatedCountersAreNeverDecremented() {
+        CountingBloomFilter filter = CountingBloomFilter.build(DFP, N_ELEMENTS);
+        for (int i = 0; i < 20; i++) {
+            filter.add("Hello");
+        }
+        for (int i = 0; i < 20; i++) {
+            filter.remove("Hello");
+        }
+
+        // the counters stuck at 15, so the member can no longer be removed
+        assertTrue(filter.contains("Hello"));
+    }
+
+    @Test
+    void exportsTheBitsOfAStandardFilter() {
+        BloomFilter standard = BloomFilter.build(DFP, N_ELEMENTS);
+        CountingBloomFilter counting = CountingBloomFilter.build(DFP, N_ELEMENTS);
+        for (int i = 0; i < 1000; i++) {
+            standard.add("word" + i);
+            counting.add("word" + i);
+        }
+        counting.add("retired");
+        counting.remove("retired");
+
+        assertEquals(standard.getBitArray(), BitSet.valueOf(counting.toByteArray()));
+
+        BloomFilter exported = counting.toBloomFilter();
+        assertEquals(standard.getBitCount(), exported.getBitCount());
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(exported.contains("word" + i), "Should return true for 'word" + i + "' once exported.");
+        }
+    }
+}
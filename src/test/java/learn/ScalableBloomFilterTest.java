@@ -0,0 +1,68 @@
+package learn;
+
+import learn.hash.HashAlgorithm;
+import learn.utils.BuildInfo;
+import learn.utils.ScalableBloomFilter;
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ScalableBloomFilterTest {
+    double DFP = 0.01;
+    int INITIAL_CAPACITY = 1000;
+
+    @Test
+    void growsPastInitialCapacityWithinDfp() {
+        ScalableBloomFilter filter = ScalableBloomFilter.build(DFP, INITIAL_CAPACITY);
+        int nElements = 20 * INITIAL_CAPACITY;
+        for (int i = 0; i < nElements; i++) {
+            filter.add("word" + i);
+        }
+
+        // 1000 + 2000 + 4000 + 8000 + 16000 holds 20000
+        assertEquals(5, filter.getSegmentCount());
+        assertEquals(nElements, filter.getElementCount());
+        for (int i = 0; i < nElements; i++) {
+            assertTrue(filter.contains("word" + i), "Should return true for 'word" + i + "'");
+        }
+
+        int falsePositives = 0;
+        int nQueries = 100_000;
+        for (int i = 0; i < nQueries; i++) {
+            if (filter.contains("stranger" + i)) {
+                falsePositives++;
+            }
+        }
+        assertTrue(falsePositives < DFP * nQueries, "False positive rate " + (double) falsePositives / nQueries);
+    }
+
+    @Test
+    void keepsGrowingAfterReload() {
+        ScalableBloomFilter filter = ScalableBloomFilter.build(DFP, INITIAL_CAPACITY, HashAlgorithm.XXHASH64.getHasher());
+        for (int i = 0; i < 1500; i++) {
+            filter.add("word" + i);
+        }
+
+        BuildInfo header = new BuildInfo()
+                .setLayout(BuildInfo.Layout.SCALABLE)
+                .setVersion(BuildInfo.CURRENT_VERSION)
+                .setHashFunctions((short) filter.getNumOfHashFunctions())
+                .setBloomFilterBitsRequired(filter.getBitCount())
+                .setHashAlgorithm(HashAlgorithm.XXHASH64);
+        ScalableBloomFilter loaded = ScalableBloomFilter.build(filter.toByteArray(), header);
+
+        assertEquals(2, loaded.getSegmentCount());
+        assertEquals(1500, loaded.getElementCount());
+        assertEquals(filter.getBitCount(), loaded.getBitCount());
+        for (int i = 0; i < 1500; i++) {
+            assertTrue(loaded.contains("word" + i), "Should return true for 'word" + i + "' after reload");
+        }
+
+        // the second filter holds 2000, so 1500 more starts a third
+        for (int i = 1500; i < 3001; i++) {
+            loaded.add("word" + i);
+        }
+        assertEquals(3, loaded.getSegmentCount());
+        assertTrue(loaded.contains("word3000"));
+    }
+}
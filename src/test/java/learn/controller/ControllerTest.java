@@ -1,33 +1,279 @@
 package learn.controller;
 
+import learn.dictionary.MappedDictionaryData;
+import learn.dictionary.Read;
+import learn.utils.BinaryFuseFilter;
+import learn.utils.BloomFilter;
+import learn.utils.BuildInfo;
+import learn.utils.CountingBloomFilter;
+import learn.utils.PartitionedFilter;
+import learn.utils.ScalableBloomFilter;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
 
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.io.PrintStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.ValueLayout;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.nio.file.StandardCopyOption;
 import java.util.ArrayList;
 import java.util.List;
 
+import static org.junit.jupiter.api.Assertions.*;
+
 class ControllerTest {
+    private static final Path ORIGINAL = Path.of("./data/original/dict-sub.txt");
+
+    // every test starts from a standard filter of the source, compiled here rather than into data/production
+    @TempDir
+    Path dataDirectory;
+    private Path source;
+    private Path compiled;
+    private List<String> words;
+    private final PrintStream stdout = System.out;
+
+    @BeforeEach
+    void buildDictionary() throws IOException {
+        source = Files.copy(ORIGINAL, dataDirectory.resolve("dict-sub.txt"), StandardCopyOption.REPLACE_EXISTING);
+        compiled = dataDirectory.resolve("dict-compiled.bf");
+        words = Read.dictFromRawSource(source.toString());
+
+        run("build", source.toString());
+    }
+
+    @AfterEach
+    void restoreStdout() {
+        System.setOut(stdout);
+    }
 
     @Test
     void BuildDictionary() throws IOException {
-        setup();
-        Controller controller = new Controller();
-        controller.run(new ArrayList<>(List.of("build", "./data/test/dict-sub.txt")));
+        assertEquals(BuildInfo.Layout.STANDARD, compiledHeader().getLayout());
+        assertEquals(words.size(), compiledHeader().getElementCount());
     }
 
     @Test
     void RunDictionary() throws IOException {
-        Controller controller = new Controller();
-        controller.run(new ArrayList<>(List.of("check", "Aaronic", "abduction", "absconce", "zoo")));
+        run("check", "Aaronic", "abduction", "absconce", "zoo");
+    }
+
+    @Test
+    void AddToDictionaryInPlace() throws IOException {
+        long fileSize = Files.size(compiled);
+        run("add", "zyzzyva", "quokka");
+
+        try (Arena arena = Arena.ofConfined()) {
+            MappedDictionaryData dData = Read.mapCompiledSource(compiled.toString(), arena);
+            BloomFilter filter = BloomFilter.map(dData.dictionary, dData.header);
+
+            assertTrue(filter.contains("zyzzyva"));
+            assertTrue(filter.contains("quokka"));
+            assertTrue(filter.contains("Aaronic"));
+            assertEquals(words.size() + 2, dData.header.getElementCount());
+            assertEquals(BuildInfo.payloadChecksum(dData.stored), dData.header.getPayloadChecksum());
+        }
+        assertEquals(fileSize, Files.size(compiled), "Should set bits in place without growing the file.");
+    }
+
+    @Test
+    void AddToScalableDictionaryGrowsIt() throws IOException {
+        run("build", "--scalable", source.toString());
+        assertEquals(1, scalableSegmentCount());
+
+        // more new elements than the first segment was sized for
+        Path delta = dataDirectory.resolve("delta.txt");
+        List<String> added = new ArrayList<>();
+        for (int i = 0; i <= words.size(); i++) {
+            added.add("added" + i);
+        }
+        Files.write(delta, added);
+        run("add", "--file", delta.toString());
+
+        try (Arena arena = Arena.ofConfined()) {
+            MappedDictionaryData dData = Read.mapCompiledSource(compiled.toString(), arena);
+            ScalableBloomFilter filter = ScalableBloomFilter.map(dData.dictionary, dData.header);
+
+            assertEquals(2, filter.getSegmentCount());
+            assertTrue(words.stream().allMatch(filter::contains));
+            assertTrue(added.stream().allMatch(filter::contains));
+            assertEquals(words.size() + added.size(), dData.header.getElementCount());
+            assertEquals(BuildInfo.payloadChecksum(dData.stored), dData.header.getPayloadChecksum());
+        }
+
+        run("check", "Aaronic", "zoo");
+    }
+
+    @Test
+    void CheckStreamAcceptsCapitalisedSentenceStarts() throws IOException {
+        Path text = dataDirectory.resolve("capitalised.txt");
+        Files.writeString(text, "Abacus aback. Aaron abaft qwzx.\nAbandon Qwzx abalone.\n");
+
+        ByteArrayOutputStream captured = captureStdout();
+        run("check", "--stream", "--file", text.toString());
+
+        assertEquals("1:27 qwzx\n2:9 Qwzx\n", captured.toString(StandardCharsets.UTF_8));
+    }
+
+    @Test
+    void BuildFuseDictionary() throws IOException {
+        long bloomSize = Files.size(compiled);
+        run("build", "--format=fuse", source.toString());
+
+        try (Arena arena = Arena.ofConfined()) {
+            MappedDictionaryData dData = Read.mapCompiledSource(compiled.toString(), arena);
+            assertEquals(BuildInfo.Layout.FUSE, dData.header.getLayout());
+            BinaryFuseFilter filter = BinaryFuseFilter.map(dData.dictionary, dData.header);
+            for (String word: words) {
+                assertTrue(filter.contains(word));
+            }
+        }
+        assertTrue(Files.size(compiled) < bloomSize, "Should be smaller than the Bloom filter.");
+
+        run("check", "Aaronic", "zoo");
+        assertThrows(IllegalArgumentException.class, () -> run("add", "quokka"));
+    }
+
+    @Test
+    void BuildCountingDictionary() throws IOException {
+        Path counters = dataDirectory.resolve("dict-compiled.bfc");
+        run("build", "--counting", source.toString());
+
+        // the served filter is the exported standard bit array, about a quarter the size of the counters
+        try (Arena arena = Arena.ofConfined()) {
+            MappedDictionaryData dData = Read.mapCompiledSource(compiled.toString(), arena);
+            assertEquals(BuildInfo.Layout.STANDARD, dData.header.getLayout());
+            BloomFilter filter = BloomFilter.map(dData.dictionary, dData.header);
+            for (String word: words) {
+                assertTrue(filter.contains(word));
+            }
+
+            MappedDictionaryData cData = Read.mapCompiledSource(counters.toString(), arena);
+            assertEquals(BuildInfo.Layout.COUNTING, cData.header.getLayout());
+            assertTrue(cData.dictionary.byteSize() > 3 * dData.dictionary.byteSize(),
+                    "Should serve one bit per counter, not the counters.");
+
+            CountingBloomFilter counting = CountingBloomFilter.build(
+                    cData.dictionary.toArray(ValueLayout.JAVA_BYTE), cData.header);
+            assertTrue(counting.remove(words.getFirst()));
+        }
+
+        run("check", "Aaronic", "zoo");
     }
 
-    private void setup() throws IOException {
-        String source = "./data/original/dict-sub.txt";
-        String dest = "./data/test/dict-sub.txt";
+    @Test
+    void ReadsOnlyTouchedShards() throws IOException {
+        run("build", "--partitioned", "--shards", "8", source.toString());
+
+        BuildInfo header = compiledHeader();
+        assertEquals(BuildInfo.Layout.PARTITIONED, header.getLayout());
+
+        try (PartitionedFilter filter = PartitionedFilter.open(compiled, BuildInfo.headerByteSize(header.getVersion()),
+                header, 2)) {
+            assertTrue(filter.contains(words.getFirst()));
+            assertEquals(1, filter.getShardReads());
+
+            for (String word: words) {
+                assertTrue(filter.contains(word));
+            }
+            assertEquals(8, filter.getShardCount());
+            assertEquals(2, filter.getResidentShardCount());
+
+            // lookups race with shards being read in and dropped
+            assertTrue(words.parallelStream().allMatch(filter::contains));
+            assertEquals(2, filter.getResidentShardCount());
+        }
+
+        run("check", "Aaronic", "zoo");
+    }
+
+    @Test
+    void StatisticsWarnOnlyOverCapacity() throws IOException {
+        ByteArrayOutputStream captured = captureStdout();
+        run("stats");
+        assertFalse(captured.toString(StandardCharsets.UTF_8).contains("over capacity"));
+
+        // sized for a tenth of the source
+        run("build", source.toString(), "--elements", "" + words.size() / 10);
+        captured.reset();
+        run("stats");
+        assertTrue(captured.toString(StandardCharsets.UTF_8).contains("over capacity"));
+    }
+
+    @Test
+    void RejectsCorruptedDictionary() throws IOException {
+        corruptPayload();
+
+        assertThrows(Error.class, () -> run("check", "Aaronic"));
+    }
+
+    @Test
+    void RefusesToServeCorruptedDictionary() throws IOException {
+        corruptPayload();
+
+        // whether the checksum fails before or after binding, the corruption is what gets reported
+        assertThrows(Error.class, () -> run("serve", "--port", "0"));
+    }
+
+    @Test
+    void MergeShardedDictionaries() throws IOException {
+        Path shard = dataDirectory.resolve("dict-shard.txt");
+        Path firstCompiled = dataDirectory.resolve("dict-shard-1.bf");
+        Path secondCompiled = dataDirectory.resolve("dict-shard-2.bf");
+
+        // shards sized for the whole dictionary, as a sharded build would
+        Files.write(shard, words.subList(0, words.size() / 2));
+        run("build", shard.toString(), "--elements", "" + words.size());
+        Files.copy(compiled, firstCompiled);
+
+        Files.write(shard, words.subList(words.size() / 2, words.size()));
+        run("build", shard.toString(), "--elements", "" + words.size());
+        Files.copy(compiled, secondCompiled);
+
+        run("merge", firstCompiled.toString(), secondCompiled.toString());
+
+        try (Arena arena = Arena.ofConfined()) {
+            MappedDictionaryData dData = Read.mapCompiledSource(compiled.toString(), arena);
+            BloomFilter merged = BloomFilter.map(dData.dictionary, dData.header);
+
+            assertTrue(words.stream().allMatch(merged::contains));
+            assertEquals(words.size(), dData.header.getElementCount());
+        }
+    }
+
+    private void run(String... args) throws IOException {
+        new Controller(dataDirectory).run(new ArrayList<>(List.of(args)));
+    }
+
+    private int scalableSegmentCount() throws IOException {
+        try (Arena arena = Arena.ofConfined()) {
+            MappedDictionaryData dData = Read.mapCompiledSource(compiled.toString(), arena);
+            return ScalableBloomFilter.map(dData.dictionary, dData.header).getSegmentCount();
+        }
+    }
+
+    private BuildInfo compiledHeader() throws IOException {
+        try (Arena arena = Arena.ofConfined()) {
+            return Read.mapCompiledSource(compiled.toString(), arena).header;
+        }
+    }
+
+    // flips a bit in the middle of the payload
+    private void corruptPayload() throws IOException {
+        byte[] bytes = Files.readAllBytes(compiled);
+        bytes[bytes.length / 2] ^= 1;
+        Files.write(compiled, bytes);
+    }
 
-        Files.copy(Path.of(source), Path.of(dest), StandardCopyOption.REPLACE_EXISTING);
+    // restored after each test
+    private ByteArrayOutputStream captureStdout() {
+        ByteArrayOutputStream captured = new ByteArrayOutputStream();
+        System.setOut(new PrintStream(captured, true, StandardCharsets.UTF_8));
+        return captured;
     }
-}
\ No newline at end of file
+}
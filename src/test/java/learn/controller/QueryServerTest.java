@@ -0,0 +1,111 @@
+package learn.controller;
+
+import learn.utils.BloomFilter;
+import org.junit.jupiter.api.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Writer;
+import java.io.OutputStreamWriter;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class QueryServerTest {
+
+    @Test
+    void AnswersPipelinedBatches() throws IOException {
+        BloomFilter filter = BloomFilter.build(0.001, 100);
+        filter.add("apple");
+        filter.add("pear");
+
+        try (QueryServer server = QueryServer.bind(filter, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            Thread.ofVirtual().start(() -> {
+                try {
+                    server.serve();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+
+            InetSocketAddress address = (InetSocketAddress) server.getLocalAddress();
+            try (Socket client = new Socket(address.getAddress(), address.getPort());
+                 Writer out = new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8);
+                 BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8))) {
+                out.write("apple plum pear\n\npear\n");
+                out.flush();
+
+                assertEquals("101", in.readLine());
+                assertEquals("", in.readLine());
+                assertEquals("1", in.readLine());
+            }
+        }
+    }
+
+    @Test
+    void FlushesRepliesWhenTheNextRequestIsIncomplete() throws IOException {
+        BloomFilter filter = BloomFilter.build(0.001, 100);
+        filter.add("apple");
+        filter.add("pear");
+
+        try (QueryServer server = QueryServer.bind(filter, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            Thread.ofVirtual().start(() -> {
+                try {
+                    server.serve();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+
+            InetSocketAddress address = (InetSocketAddress) server.getLocalAddress();
+            try (Socket client = new Socket(address.getAddress(), address.getPort());
+                 Writer out = new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8);
+                 BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8))) {
+                // fail rather than hang if the first reply is held back
+                client.setSoTimeout(5000);
+
+                // the second request arrives with the first, but is not finished until its reply is read
+                out.write("apple plum\npe");
+                out.flush();
+                assertEquals("10", in.readLine());
+
+                out.write("ar\n");
+                out.flush();
+                assertEquals("1", in.readLine());
+            }
+        }
+    }
+
+    @Test
+    void RejectsOverlongRequestLine() throws IOException {
+        BloomFilter filter = BloomFilter.build(0.001, 100);
+
+        try (QueryServer server = QueryServer.bind(filter, new InetSocketAddress(InetAddress.getLoopbackAddress(), 0))) {
+            Thread.ofVirtual().start(() -> {
+                try {
+                    server.serve();
+                } catch (IOException e) {
+                    throw new RuntimeException(e);
+                }
+            });
+
+            InetSocketAddress address = (InetSocketAddress) server.getLocalAddress();
+            try (Socket client = new Socket(address.getAddress(), address.getPort());
+                 Writer out = new OutputStreamWriter(client.getOutputStream(), StandardCharsets.UTF_8);
+                 BufferedReader in = new BufferedReader(new InputStreamReader(client.getInputStream(), StandardCharsets.UTF_8))) {
+                client.setSoTimeout(5000);
+
+                // exactly a full buffer with no newline, all of which the server reads before closing
+                out.write("a".repeat(QueryServer.MAX_LINE_BYTES));
+                out.flush();
+
+                assertTrue(in.readLine().startsWith("ERR"));
+                assertNull(in.readLine(), "Should close the connection.");
+            }
+        }
+    }
+}
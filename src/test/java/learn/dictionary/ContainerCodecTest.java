@@ -0,0 +1,50 @@
+package learn.dictionary;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ContainerCodecTest {
+
+    @Test
+    void roundTripsEveryContainer() {
+        // a sparse chunk, a chunk of runs, a dense chunk, and a partial chunk at the end
+        byte[] raw = new byte[3 * 8192 + 1000];
+        Random random = new Random(42);
+        for (int i = 0; i < 50; i++) {
+            raw[random.nextInt(8192)] |= (byte) (1 << random.nextInt(8));
+        }
+        for (int i = 8192 + 100; i < 8192 + 3000; i += 500) {
+            for (int j = i; j < i + 37; j++) {
+                raw[j] = -1;
+            }
+            raw[i - 1] = (byte) 0x80;
+        }
+        for (int i = 2 * 8192; i < raw.length - 10; i++) {
+            raw[i] = (byte) random.nextInt();
+        }
+        raw[raw.length - 1] = 1;
+
+        byte[] encoded = ContainerCodec.encode(MemorySegment.ofArray(raw));
+        try (Arena arena = Arena.ofConfined()) {
+            assertArrayEquals(raw, ContainerCodec.decode(MemorySegment.ofArray(encoded), arena).toArray(ValueLayout.JAVA_BYTE));
+        }
+
+        assertTrue(encoded.length < raw.length - 8192, "Should shrink the sparse and clustered chunks.");
+    }
+
+    @Test
+    void rejectsTruncatedPayload() {
+        byte[] encoded = ContainerCodec.encode(MemorySegment.ofArray(new byte[20000]));
+
+        try (Arena arena = Arena.ofConfined()) {
+            assertThrows(IllegalArgumentException.class,
+                    () -> ContainerCodec.decode(MemorySegment.ofArray(encoded).asSlice(0, encoded.length - 1), arena));
+        }
+    }
+}
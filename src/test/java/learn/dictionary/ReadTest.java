@@ -0,0 +1,73 @@
+package learn.dictionary;
+
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class ReadTest {
+
+    @Test
+    void forEachRawElementSeesEveryLineOnce() throws IOException {
+        String source = "./data/original/dict.txt";
+
+        List<String> expected = new ArrayList<>(Read.dictFromRawSource(source));
+        List<String> actual = Collections.synchronizedList(new ArrayList<>());
+        Read.forEachRawElement(source, 4, actual::add);
+
+        Collections.sort(expected);
+        Collections.sort(actual);
+        assertEquals(expected, actual);
+    }
+
+    @Test
+    void forEachRawElementSplitsLinesLikeReadAllLines() throws IOException {
+        Path source = Files.createTempFile("raw", ".txt");
+        try {
+            for (String contents: new String[]{"", "a", "a\n", "a\r\nb\r\n", "\n\nb", "a\n\n"}) {
+                Files.writeString(source, contents, StandardCharsets.US_ASCII);
+
+                List<String> actual = new ArrayList<>();
+                Read.forEachRawElement(source.toString(), 1, actual::add);
+
+                assertEquals(Read.dictFromRawSource(source.toString()), actual, "Lines of '" + contents + "'");
+            }
+        } finally {
+            Files.delete(source);
+        }
+    }
+
+    @Test
+    void forEachWordFindsWordsAndPositionsAcrossReads() throws IOException {
+        byte[] text = "Hello, wörld!\n  “naïve” cafe-au\n\nend".getBytes(StandardCharsets.UTF_8);
+
+        // hands the text over one byte per read, so every word and character straddles a read
+        InputStream trickle = new ByteArrayInputStream(text) {
+            @Override
+            public synchronized int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 1));
+            }
+
+            @Override
+            public synchronized int available() {
+                return 0;
+            }
+        };
+
+        List<String> actual = new ArrayList<>();
+        Read.forEachWord(Channels.newChannel(trickle), (bytes, offset, length, line, column) ->
+                actual.add(line + ":" + column + " " + new String(bytes, offset, length, StandardCharsets.UTF_8)));
+
+        assertEquals(List.of("1:1 Hello", "1:8 wörld", "2:4 naïve", "2:11 cafe", "2:16 au", "4:1 end"), actual);
+    }
+}
@@ -0,0 +1,75 @@
+package learn.hash;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class HashAlgorithmTest {
+
+    private static final byte[] FOX = "The quick brown fox jumps over the lazy dog".getBytes(StandardCharsets.US_ASCII);
+
+    @Test
+    void matchesReferenceValues() {
+        assertEquals(0xEF46DB3751D8E999L, XXHash64.hash(new byte[0], 0));
+        assertEquals(0x44BC2CF5AD770999L, XXHash64.hash("abc".getBytes(StandardCharsets.US_ASCII), 0));
+        assertEquals(0x0B242D361FDA71BCL, XXHash64.hash(FOX, 0));
+
+        assertEquals(0L, Murmur3.hash(new byte[0], 0));
+        assertEquals(0xE34BBC7BBC071B6CL, Murmur3.hash(FOX, 0));
+    }
+
+    @Test
+    void hashesSlicesLikeCopies() {
+        byte[] padded = new byte[FOX.length + 3];
+        System.arraycopy(FOX, 0, padded, 1, FOX.length);
+
+        for (HashAlgorithm algorithm: HashAlgorithm.values()) {
+            QuickHash hasher = algorithm.getHasher();
+            // every tail length of both hashes' word loops
+            for (int length = 0; length <= FOX.length; length++) {
+                byte[] copy = Arrays.copyOf(FOX, length);
+                assertEquals(hasher.hash(copy, 7), hasher.hash(padded, 1, length, 7), algorithm + " at " + length);
+            }
+            assertEquals(hasher.hash(FOX, 7), hasher.hash("The quick brown fox jumps over the lazy dog", 7));
+            assertNotEquals(hasher.hash(FOX, 1), hasher.hash(FOX, 2), algorithm + " ignores its seed");
+        }
+    }
+
+    @Test
+    void hashesEveryKeyTypeLikeItsUtf8Bytes() {
+        String[] keys = {"", "a", "naïve café", "日本語のテキスト", "emoji \uD83D\uDE00 and a lone \uD800 surrogate",
+                "The quick brown fox jumps over the lazy dog, twice: the quick brown fox jumps over the lazy dog"};
+
+        for (HashAlgorithm algorithm: HashAlgorithm.values()) {
+            QuickHash hasher = algorithm.getHasher();
+            for (String key: keys) {
+                byte[] bytes = key.getBytes(StandardCharsets.UTF_8);
+                long expected = hasher.hash(bytes, 3);
+
+                assertEquals(expected, hasher.hash(key, 3), algorithm + " CharSequence of '" + key + "'");
+                assertEquals(expected, hasher.hash(new StringBuilder(key), 3), algorithm + " StringBuilder");
+                assertEquals(expected, hasher.hash(MemorySegment.ofArray(bytes), 3), algorithm + " heap segment");
+
+                ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length + 2).position(2);
+                direct.put(bytes).position(1);
+                assertEquals(expected, hasher.hash(direct, 2, bytes.length, 3), algorithm + " direct buffer");
+                assertEquals(1, direct.position());
+                assertEquals(expected, hasher.hash(ByteBuffer.wrap(bytes).asReadOnlyBuffer(), 0, bytes.length, 3),
+                        algorithm + " read-only buffer");
+            }
+        }
+    }
+
+    @Test
+    void findsAlgorithmsById() {
+        for (HashAlgorithm algorithm: HashAlgorithm.values()) {
+            assertSame(algorithm, HashAlgorithm.fromId(algorithm.getId()));
+        }
+        assertNull(HashAlgorithm.fromId((short) -1));
+    }
+}
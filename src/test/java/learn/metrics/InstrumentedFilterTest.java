@@ -0,0 +1,35 @@
+package learn.metrics;
+
+import learn.utils.BloomFilter;
+import org.junit.jupiter.api.Test;
+
+import java.util.BitSet;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class InstrumentedFilterTest {
+
+    @Test
+    void countsHitsAndMisses() {
+        BloomFilter filter = BloomFilter.build(0.01, 1_000);
+        filter.add("Hello");
+        // time every query, so the samples do not depend on chance
+        FilterMetrics metrics = new FilterMetrics(filter, () -> true);
+        InstrumentedFilter instrumented = new InstrumentedFilter(filter, metrics);
+
+        assertTrue(instrumented.contains("Hello"));
+        assertFalse(instrumented.contains("World"));
+        instrumented.containsAll(new String[]{"Hello", "World", "Hello"}, new BitSet());
+        for (int i = 0; i < 10 * FilterMetrics.SAMPLE_EVERY; i++) {
+            instrumented.contains("Hello");
+        }
+
+        assertEquals(5 + 10 * FilterMetrics.SAMPLE_EVERY, metrics.getQueries());
+        assertEquals(2, metrics.getMisses());
+        // a batch is timed once, as a whole
+        assertEquals(3 + 10 * FilterMetrics.SAMPLE_EVERY, metrics.getLatencySamples());
+        assertTrue(metrics.getLatencyP50Nanos() <= metrics.getLatencyP99Nanos());
+        assertEquals(filter.getBitPopulation(), metrics.getBitPopulation());
+        assertEquals(0.01, metrics.getDesiredFalsePositiveRate());
+    }
+}
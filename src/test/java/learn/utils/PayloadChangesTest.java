@@ -0,0 +1,52 @@
+package learn.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class PayloadChangesTest {
+
+    @Test
+    void updatesChecksumOfSetBits() {
+        Random random = new Random(42);
+        byte[] payload = new byte[1 << 16];
+        random.nextBytes(payload);
+
+        // saved without its last bytes, as a BitSet would trim them if they were zero
+        int storedBytes = payload.length - 100;
+        Arrays.fill(payload, storedBytes, payload.length, (byte) 0);
+        int checksum = BuildInfo.payloadChecksum(MemorySegment.ofArray(payload).asSlice(0, storedBytes));
+
+        MemorySegment segment = MemorySegment.ofArray(payload);
+        PayloadChanges changes = new PayloadChanges(payload.length);
+        MappedBitStore bits = new MappedBitStore(segment, changes);
+        for (int i = 0; i < 10; i++) {
+            bits.set(random.nextLong((long) payload.length * Byte.SIZE));
+        }
+        bits.set((long) payload.length * Byte.SIZE - 1);
+        bits.set(0);
+        bits.set(0);
+
+        assertFalse(changes.isDense());
+        assertEquals(BuildInfo.payloadChecksum(segment), changes.updateChecksum(checksum, storedBytes, segment));
+    }
+
+    @Test
+    void checksumsDenseChangesAgain() {
+        byte[] payload = new byte[1 << 16];
+        MemorySegment segment = MemorySegment.ofArray(payload);
+        PayloadChanges changes = new PayloadChanges(payload.length);
+        MappedBitStore bits = new MappedBitStore(segment, changes);
+
+        for (long index = 0; index < 1000; index++) {
+            bits.set(index * 7);
+        }
+
+        assertTrue(changes.isDense());
+        assertEquals(BuildInfo.payloadChecksum(segment), changes.updateChecksum(0, 0, segment));
+    }
+}
@@ -0,0 +1,72 @@
+package learn.utils;
+
+import org.junit.jupiter.api.Test;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+import static org.junit.jupiter.api.Assumptions.assumeTrue;
+
+class WordKernelsTest {
+    // sizes in bytes: empty, less than a word, whole words, and vectors with words and bytes left over
+    private static final int[] SIZES = {0, 5, 8, 64, 67, 1000, 4099};
+
+    private final WordKernels scalar = new ScalarWordKernels();
+
+    @Test
+    void runsOnVectorKernelsWithTheModule() {
+        // -P vector compiles the vector kernels and adds jdk.incubator.vector, so the tests below run on them
+        assumeTrue(ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent());
+        assertEquals("learn.utils.VectorWordKernels", WordKernels.INSTANCE.getClass().getName());
+    }
+
+    @Test
+    void matchesScalarKernels() {
+        Random random = new Random(42);
+
+        try (Arena arena = Arena.ofConfined()) {
+            for (int size: SIZES) {
+                MemorySegment target = randomSegment(arena, size, random);
+                MemorySegment source = randomSegment(arena, size, random);
+                assertEquals(scalar.cardinality(target), WordKernels.INSTANCE.cardinality(target), size + " bytes");
+
+                // from an unaligned start, as well as the whole array
+                for (int from: new int[]{0, Math.min(3, size)}) {
+                    MemorySegment expected = copy(arena, target);
+                    MemorySegment actual = copy(arena, target);
+                    scalar.or(expected, source, from, size);
+                    WordKernels.INSTANCE.or(actual, source, from, size);
+                    assertEquals(-1, expected.mismatch(actual), "or of " + size + " bytes from " + from);
+
+                    scalar.and(expected, target, from, size);
+                    WordKernels.INSTANCE.and(actual, target, from, size);
+                    assertEquals(-1, expected.mismatch(actual), "and of " + size + " bytes from " + from);
+                }
+            }
+        }
+    }
+
+    @Test
+    void fallsBackForHeapWords() {
+        long[] words = new Random(7).longs(100).toArray();
+        MemorySegment bits = MemorySegment.ofArray(words);
+
+        long expected = 0;
+        for (long word: words) {
+            expected += Long.bitCount(word);
+        }
+        assertEquals(expected, WordKernels.INSTANCE.cardinality(bits));
+    }
+
+    private static MemorySegment randomSegment(Arena arena, int size, Random random) {
+        byte[] bytes = new byte[size];
+        random.nextBytes(bytes);
+        return arena.allocate(Math.max(size, 1)).asSlice(0, size).copyFrom(MemorySegment.ofArray(bytes));
+    }
+
+    private static MemorySegment copy(Arena arena, MemorySegment segment) {
+        return arena.allocate(Math.max(segment.byteSize(), 1)).asSlice(0, segment.byteSize()).copyFrom(segment);
+    }
+}